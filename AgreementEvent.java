@@ -0,0 +1,41 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import jdk.jfr.*;
+
+
+/**
+ * Flight Recorder event for one RankedRoleFinder.attrOrdersAgree call,
+ * i.e. one feature pair compared during pruning. Off by default; when
+ * enabled it shows which feature pairs are expensive to compare and how
+ * many node checks each one took.
+ */
+@Name("refex.FeatureAgreement")
+@Label("Feature Agreement Check")
+@Category("ReFeX")
+@Description("Comparison of the binned values of two features during pruning")
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+public class AgreementEvent extends Event {
+
+	@Label("Feature 1")
+	String feature1;
+
+	@Label("Feature 2")
+	String feature2;
+
+	@Label("Max Allowed")
+	@Description("allowed bin difference (the lattice threshold)")
+	int maxAllowed;
+
+	@Label("Checks")
+	@Description("node values compared before the outcome was known")
+	long checks;
+
+	@Label("Agree")
+	boolean agree;
+}
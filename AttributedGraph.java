@@ -25,6 +25,8 @@ public class AttributedGraph {
   private Map<Long,AttributedNode> idToNode = new HashMap<Long,AttributedNode>();
   private Set<AttributedLink> links = new HashSet<AttributedLink>();
   private long startTime;
+  // bumped by every link or node addition or removal
+  private long modCount = 0;
   
   /**
    * Default constructor.
@@ -74,6 +76,14 @@ public class AttributedGraph {
     return links.size();
   }
   
+  /**
+   * Number of structural changes (links or nodes added or removed) so
+   * far, for callers that cache something derived from the links.
+   */
+  public long getModCount() {
+    return modCount;
+  }
+  
   /**
    * Get collection of node identifiers.
    */
@@ -140,6 +150,7 @@ public class AttributedGraph {
     AttributedLink link = new AttributedLink(srcNode, dstNode, attrs); 
     
     links.add(link);
+    modCount++;
     
     // update node in/out links      
     if (srcNode == dstNode) {
@@ -155,6 +166,7 @@ public class AttributedGraph {
   protected void removeLink(AttributedLink link) {
         
     links.remove(link);
+    modCount++;
        
     // update node in/out links      
     if (link.src == link.dst) {
@@ -192,6 +204,7 @@ public class AttributedGraph {
   private AttributedNode addNode(Long id) {
     AttributedNode node = new AttributedNode(id);      
     idToNode.put(id, node);
+    modCount++;
     return node;
   }
   
@@ -299,6 +312,25 @@ public class AttributedGraph {
     }
   }
   
+  /**
+   * Removes node from every index it appears in, e.g. after removeLink
+   * dropped it from the graph.
+   */
+  public void removeFromIndex(AttributedNode node) {
+    for (Entry<String,Object> attr : node.attrs.entrySet()) {
+      Map<Object,Set<AttributedNode>> index = nodeIndices.get(attr.getKey());
+      if (index != null) {
+        Set<AttributedNode> nodes = index.get(attr.getValue());
+        if (nodes != null) {
+          nodes.remove(node);
+          if (nodes.isEmpty()) {
+            index.remove(attr.getValue());
+          }
+        }
+      }
+    }
+  }
+  
   public void removeNodeIndex(String attrName) {
     nodeIndices.put(attrName, null);    
   }
@@ -0,0 +1,230 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Micro-benchmarks for the ReFeX hot paths: egonet counting at levels
+ * 0 and 1, EgonetGenerator construction, vertical binning, feature
+ * pruning (calculateReps and attrOrdersAgree) and edge-file loading.
+ *
+ * Every benchmark runs on synthetic undirected power-law graphs (the
+ * GraphGenerator Chung-Lu model) for each combination of node count and
+ * degree exponent, so regressions that only show up on large or skewed
+ * graphs are visible. Each benchmark
+ * gets warmup iterations (discarded) followed by timed iterations;
+ * results are reported as the mean and standard deviation of one
+ * operation, plus throughput where an operation covers every node.
+ * Results are fed to a sink so the JIT cannot discard the work.
+ *
+ * Command line arguments (all optional, in any order):
+ * filter: only run benchmarks whose name contains this string
+ * nodes=N1,N2,...: graph sizes (default 1000,10000)
+ * skew=G1,G2,...: power-law degree exponents; smaller is more skewed
+ *                 (default 2.1,3.0)
+ * degree=D: average degree (default 8)
+ * warmup=W: warmup iterations (default 3)
+ * iterations=I: timed iterations (default 5)
+ */
+public class Benchmarks {
+
+	static volatile Object sink;
+
+	/**
+	 * Graph and derived state shared by every benchmark for one
+	 * combination of parameters.
+	 */
+	static class State {
+		final int numNodes;
+		final double skew;
+		final File edgeFile;
+		AttributedGraph graph;
+		EgonetGenerator egoGen;
+		String[] primitives;
+		AttributedGraph binnedGraph;
+		Set<String> candidates;
+		Map<String, Double> maxBins;
+		Map<String, Map<Double, Set<AttributedNode>>> sortedAttrSets;
+
+		State(int numNodes, double skew, double degree) throws IOException {
+			this.numNodes = numNodes;
+			this.skew = skew;
+			edgeFile = File.createTempFile("refex-bench", ".csv");
+			edgeFile.deleteOnExit();
+			GraphGenerator gen = new GraphGenerator(GraphGenerator.Model.CHUNGLU,
+					numNodes, (long)(numNodes * degree / 2), 42);
+			gen.exponent = skew;
+			GraphGenerator.CsvSink sink = new GraphGenerator.CsvSink(edgeFile.getPath());
+			try {
+				gen.generate(sink);
+			}
+			finally {
+				sink.close();
+			}
+
+			graph = new GraphLoader().load(edgeFile.getPath());
+			egoGen = new EgonetGenerator(graph, null, null, new String[]{"wgt"});
+			primitives = RankedRoleFinder.calculateAttrs(graph, null, null);
+
+			// a binned copy of the primitives, as seen by the first pruning pass
+			binnedGraph = new AttributedGraph(graph);
+			GenerateFeatures.sortedAttrSets.clear();
+			GenerateFeatures.maxBins.clear();
+			Set<String> constants = GenerateFeatures.binAttributes(
+					binnedGraph, primitives, 0, 0.5);
+			candidates = new HashSet<String>(Arrays.asList(primitives));
+			candidates.removeAll(constants);
+			maxBins = new HashMap<String, Double>(GenerateFeatures.maxBins);
+			sortedAttrSets = new HashMap<String, Map<Double, Set<AttributedNode>>>(
+					GenerateFeatures.sortedAttrSets);
+		}
+
+		public String toString() {
+			return "nodes=" + numNodes + " skew=" + skew;
+		}
+	}
+
+	/**
+	 * One benchmarked operation. perNode is true when an operation visits
+	 * every node, so throughput can be reported in nodes per second.
+	 */
+	static abstract class Benchmark {
+		final String name;
+		final boolean perNode;
+		Benchmark(String name, boolean perNode) {
+			this.name = name;
+			this.perNode = perNode;
+		}
+		abstract Object run(State state) throws IOException;
+	}
+
+	static List<Benchmark> benchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new Benchmark("egonetCounts0", true) {
+			Object run(State s) {
+				double total = 0;
+				for(AttributedNode node : s.graph.getNodes())
+					total += s.egoGen.getCounts(node.id, 0).get("xeu");
+				return total;
+			}
+		});
+		list.add(new Benchmark("egonetCounts1", true) {
+			Object run(State s) {
+				double total = 0;
+				for(AttributedNode node : s.graph.getNodes())
+					total += s.egoGen.getCounts(node.id, 1).get("weu");
+				return total;
+			}
+		});
+		list.add(new Benchmark("egonetGenerator", true) {
+			Object run(State s) {
+				return new EgonetGenerator(s.graph, null, null, new String[]{"wgt"});
+			}
+		});
+		list.add(new Benchmark("verticalBin", true) {
+			Object run(State s) {
+				return RankedRoleFinder.verticalBin(s.graph, "xesu1", 0.5);
+			}
+		});
+		list.add(new Benchmark("calculateReps", false) {
+			Object run(State s) {
+				return RankedRoleFinder.calculateReps(s.binnedGraph, 0,
+						s.candidates, s.maxBins, s.sortedAttrSets,
+						new HashMap<String, Map<String, Boolean>>());
+			}
+		});
+		list.add(new Benchmark("attrOrdersAgree", false) {
+			Object run(State s) {
+				int agree = 0;
+				for(String attr1 : s.candidates)
+					for(String attr2 : s.candidates)
+						if(attr1 != attr2 && RankedRoleFinder.attrOrdersAgree(
+								attr1, attr2, s.binnedGraph, 0, s.maxBins,
+								s.sortedAttrSets, null))
+							agree++;
+				return agree;
+			}
+		});
+		list.add(new Benchmark("loadGraph", true) {
+			Object run(State s) throws IOException {
+				return new GraphLoader().load(s.edgeFile.getPath());
+			}
+		});
+		return list;
+	}
+
+	static void measure(Benchmark bench, State state, int warmup,
+			int iterations) throws IOException {
+		for(int i = 0; i < warmup; i++)
+			sink = bench.run(state);
+
+		double[] times = new double[iterations];
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			sink = bench.run(state);
+			times[i] = (System.nanoTime() - start) / 1e6;
+		}
+
+		double mean = 0, var = 0;
+		for(double t : times) mean += t;
+		mean /= iterations;
+		for(double t : times) var += (t - mean) * (t - mean);
+		double stddev = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+
+		String throughput = bench.perNode ?
+				String.format("%12.0f nodes/s", state.numNodes / (mean / 1e3)) : "";
+		System.out.println(String.format("%-16s %-24s %12.3f ms/op +- %9.3f %s",
+				bench.name, state, mean, stddev, throughput));
+	}
+
+	private static double[] parseList(String s) {
+		String[] fields = s.split(",");
+		double[] ret = new double[fields.length];
+		for(int i = 0; i < fields.length; i++)
+			ret[i] = Double.parseDouble(fields[i]);
+		return ret;
+	}
+
+	/**
+	 * Entry point for the benchmarks.
+	 *
+	 * @param args = [filter] [nodes=...] [skew=...] [degree=D] [warmup=W] [iterations=I]
+	 */
+	public static void main(String[] args) throws IOException {
+		String filter = "";
+		double[] nodes = {1000, 10000};
+		double[] skews = {2.1, 3.0};
+		double degree = 8;
+		int warmup = 3, iterations = 5;
+		try {
+			for(String arg : args) {
+				if(arg.startsWith("nodes=")) nodes = parseList(arg.substring(6));
+				else if(arg.startsWith("skew=")) skews = parseList(arg.substring(5));
+				else if(arg.startsWith("degree=")) degree = Double.parseDouble(arg.substring(7));
+				else if(arg.startsWith("warmup=")) warmup = Integer.parseInt(arg.substring(7));
+				else if(arg.startsWith("iterations=")) iterations = Integer.parseInt(arg.substring(11));
+				else filter = arg;
+			}
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java Benchmarks [filter] [nodes=N1,N2] " +
+					"[skew=G1,G2] [degree=D] [warmup=W] [iterations=I]");
+			return;
+		}
+
+		for(double n : nodes) {
+			for(double skew : skews) {
+				State state = new State((int)n, skew, degree);
+				for(Benchmark bench : benchmarks()) {
+					if(bench.name.contains(filter))
+						measure(bench, state, warmup, iterations);
+				}
+			}
+		}
+	}
+}
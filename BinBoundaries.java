@@ -0,0 +1,66 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * The vertical bins of one feature, frozen so that new values can be
+ * binned without re-sorting the whole graph. Bin b (b >= 1) holds the
+ * values from the smallest value verticalBin put in bin b up to, but not
+ * including, the smallest value of bin b+1; values within 1e-5 of zero
+ * are bin 0, as in verticalBin. Every value of the binned graph falls in
+ * the bin verticalBin gave it.
+ */
+public class BinBoundaries {
+
+	// lows[k] is the smallest value of bin k+2
+	private final double[] lows;
+
+	public BinBoundaries(double[] lows) {
+		this.lows = lows;
+	}
+
+	/**
+	 * Boundaries of the bins that RankedRoleFinder.verticalBin assigned
+	 * to attr, given the node attribute binAttr that holds them.
+	 */
+	public static BinBoundaries of(AttributedGraph graph, String attr, String binAttr) {
+		int maxBin = 0;
+		for(AttributedNode node : graph.getNodes())
+			maxBin = Math.max(maxBin, (int)(double)(Double)node.getAttr(binAttr));
+		double[] mins = new double[maxBin + 1];
+		Arrays.fill(mins, Double.POSITIVE_INFINITY);
+		for(AttributedNode node : graph.getNodes()) {
+			int b = (int)(double)(Double)node.getAttr(binAttr);
+			double value = (Double)node.getAttr(attr);
+			if(b > 0 && value < mins[b]) mins[b] = value;
+		}
+		return new BinBoundaries(maxBin < 2 ? new double[0] :
+				Arrays.copyOfRange(mins, 2, maxBin + 1));
+	}
+
+	public double bin(double value) {
+		if(Math.abs(value - 0) <= 1E-5)
+			return 0.0;
+		// number of lows <= value
+		int lo = 0, hi = lows.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(lows[mid] <= value) lo = mid + 1;
+			else hi = mid;
+		}
+		return 1.0 + lo;
+	}
+
+	public int numBins() {
+		return lows.length + 1;
+	}
+
+	double[] lows() {
+		return lows;
+	}
+}
@@ -27,16 +27,13 @@ public class CalculateFeatures {
 
 	
 	protected static List<String> featureNames = new ArrayList<String>();
-	protected static Map<String, List<Double>> featureValues = 
-		new HashMap<String, List<Double>>();
+	protected static FeatureMatrix features;
+	protected static RunMetrics metrics;
 	
 	
 	protected static void calculateAttributes(String graphFile, 
 			double binSize) throws IOException{
-		String curLine, uid, vid;
-		Double weight;
 		int numIters = 0;
-		long weighted=0, unweighted=0;
 		
 		
 		
@@ -51,57 +48,33 @@ public class CalculateFeatures {
 				validPostfix.add("wgt"+s.substring(s.indexOf('-')));
 		}
 		
-		AttributedGraph graph = new AttributedGraph();
-
-
-		BufferedReader reader = new BufferedReader(new FileReader(graphFile));
-
-		graph.buildNodeIndex("nodeID");
-		while ((curLine = reader.readLine()) != null) {
-			String[] fields = curLine.split(",");
-			uid = new String(fields[0]);
-			vid = new String(fields[1]);
-			weight = new Double(fields[2]);
-
-			unweighted++;
-			weighted+=weight;
-			
-			AttributedNode srcNode = graph.getNode("nodeID", uid);
-			if (srcNode == null) {
-				srcNode = graph.addNode();
-				srcNode.setAttr("nodeID", uid);
-				graph.updateIndex(srcNode);
-			}
-
-			AttributedNode dstNode = graph.getNode("nodeID", vid);
-			if (dstNode == null) {
-				dstNode = graph.addNode();
-				dstNode.setAttr("nodeID", vid);
-				graph.updateIndex(dstNode);
-			}
-
-			Map<String,Object> attrs = new HashMap<String,Object>();
-			attrs.put("wgt", weight);
-
-			graph.addLink(srcNode, dstNode, attrs);
-		}
-
-
-
-		graph.buildNodeIndex("nodeID");
+		if(metrics == null) metrics = new RunMetrics("CalculateFeatures");
+		GraphLoader loader = new GraphLoader();
+		loader.metrics = metrics;
+		AttributedGraph graph = loader.load(graphFile);
+		long weighted = loader.weighted, unweighted = loader.unweighted;
+		metrics.numNodes = graph.getNumNodes();
+		metrics.put("components", ConnectedComponents.of(graph).numComponents());
+		metrics.numEdges = unweighted;
+		metrics.put("graph", graphFile);
+		metrics.put("binSize", binSize);
 		
 		int j = 0;
+		String phase = "iteration " + j + ": ";
 		System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
 				+ ": Iteration " + (j++));
 
 		List<String> allReps = new ArrayList<String>();
 
+		metrics.begin(phase + "egonet");
 		String[] primitives = RankedRoleFinder.calculateAttrs(graph, null, null);
+		metrics.end(phase + "egonet");
 		
 		/*
 		 * Compute vertical bins for *all* features. Replace feature values with bin values
 		 * and remove any features that were not selected by the target graph.
 		 */
+		metrics.begin(phase + "binning");
 		for(String attr : primitives) {
 			int sum = 0;
 			String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
@@ -115,6 +88,7 @@ public class CalculateFeatures {
 			}
 			
 		}
+		metrics.end(phase + "binning");
 
 
 		
@@ -130,6 +104,7 @@ public class CalculateFeatures {
 		}
 		
 		
+		metrics.begin(phase + "pruning");
 		Set<String> reps = new HashSet<String>();
 		for(String s : candidates)
 			if(featureNames.contains(s))
@@ -142,14 +117,17 @@ public class CalculateFeatures {
 				}
 			}
 		}
+		metrics.end(phase + "pruning");
 
 		String[] attrs = new String[reps.size()];
 		int i = 0;
 
+		metrics.begin(phase + "binning");
 		for(String rep : reps) {
 			allReps.add(rep);
 			attrs[i++] = RankedRoleFinder.verticalBin(graph, rep, binSize);
 		}
+		metrics.end(phase + "binning");
 
 		numIters = 1;
 
@@ -157,16 +135,20 @@ public class CalculateFeatures {
 		
 		while(attrs.length > 0 && numIters++ < MAX_ITERATIONS) {
 			
+			phase = "iteration " + j + ": ";
 			System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
 					+ ": Iteration " + (j++));
 			
+			metrics.begin(phase + "egonet");
 			String[] features = RankedRoleFinder.calculateAttrs(graph, null, attrs);
+			metrics.end(phase + "egonet");
 			
 			
 			/*
 			 * Compute vertical bins for *all* features. Replace feature values with bin values
 			 * and remove any features that offer no discriminatory power.
 			 */
+			metrics.begin(phase + "binning");
 			for(String attr : features) {
 				int sum = 0;
 				String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
@@ -177,6 +159,7 @@ public class CalculateFeatures {
 					sum += rank;
 				}
 			}
+			metrics.end(phase + "binning");
 
 
 			
@@ -188,6 +171,7 @@ public class CalculateFeatures {
 			}
 			for(String s : allReps) candidates.add(s);
 
+			metrics.begin(phase + "pruning");
 			reps = new HashSet<String>();
 			for(String s : candidates) {
 				if(compNameSet.contains(s))
@@ -205,14 +189,16 @@ public class CalculateFeatures {
 				}
 			}
 
-
+			metrics.end(phase + "pruning");
 			
+			metrics.begin(phase + "binning");
 			candidatePostfix.clear();
 			for (String rep : reps) {
 				if(allReps.contains(rep)) continue;
 				allReps.add(rep);
 				candidatePostfix.add(RankedRoleFinder.verticalBin(graph, rep, binSize));
 			}
+			metrics.end(phase + "binning");
 			
 			postfix.clear();
 			for(String post : candidatePostfix) {
@@ -231,12 +217,9 @@ public class CalculateFeatures {
 
 
 		
-		for(AttributedNode node : graph.getNodes()) {
-			String nodeID = (String)node.getAttr("nodeID");			
-			featureValues.put(nodeID, new ArrayList<Double>());
-			for(String comp : featureNames) 
-				featureValues.get(nodeID).add((Double)node.getAttr(comp));			
-		}
+		metrics.begin("featureMatrix");
+		features = FeatureMatrix.fromGraph(graph, featureNames);
+		metrics.end("featureMatrix");
 		
 
 
@@ -245,10 +228,18 @@ public class CalculateFeatures {
 
 
 		System.out.println("Graph: " + graphFile);
-		System.out.println("Nodes: " + featureValues.size());
+		System.out.println("Nodes: " + features.numRows);
 		System.out.println("Edges: " + unweighted);
 		System.out.println("Edge Weight: " + weighted);
 
+		metrics.put("edgeWeight", weighted);
+		metrics.put("iterations", j);
+		metrics.put("features", featureNames.size());
+		metrics.setCounter("agreementChecks", RankedRoleFinder.checks);
+		metrics.setCounter("corrChecks", RankedRoleFinder.corrChecks);
+		metrics.setCounter("memoHits", RankedRoleFinder.memoHits);
+		metrics.setCounter("dedupedNodes", RankedRoleFinder.dedupedNodes);
+
 		
 	}
 	
@@ -257,17 +248,9 @@ public class CalculateFeatures {
 	
 	
 	protected static void writeFeatures(
-			Map<String, List<Double>> featureValues,
+			FeatureMatrix features,
 			String fileName) throws IOException {
-
-		PrintStream out = new PrintStream(fileName);
-		for(String s : featureValues.keySet()) {
-			out.print(s + ",");
-			List<Double> vals = featureValues.get(s);
-			for(int i = 0; i < vals.size()-1; i++)
-				out.print(vals.get(i) + ",");
-			out.println(vals.get(vals.size()-1));
-		}
+		features.write(fileName);
 	}
 	
 	
@@ -308,6 +291,8 @@ public class CalculateFeatures {
 		}
 
 		outFile = baseOut + "-featureValues.csv";
+		String reportFile = baseOut + "-runReport.json";
+		metrics = new RunMetrics("CalculateFeatures");
 		
 		
 		for(String rep : new BufferedReader(
@@ -332,7 +317,11 @@ public class CalculateFeatures {
 		
 		
 		System.out.println("Feature Values: writing " + outFile);
-		writeFeatures(featureValues, outFile);
+		metrics.begin("output");
+		writeFeatures(features, outFile);
+		metrics.end("output");
+		System.out.println("Run Report: writing " + reportFile);
+		metrics.write(reportFile);
 		System.out.println();
 		
 		
@@ -0,0 +1,233 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * Weakly connected components of a graph, kept in a union-find structure
+ * (union by size, path halving) so they can be built link by link while
+ * a graph is loaded.
+ *
+ * Egonet features of a node only depend on its own component, so nodes
+ * in isomorphic components get the same features. Real inputs often
+ * have one giant component and a long tail of dyads, triads and other
+ * tiny components; canonicalKey() gives the nodes of those components a
+ * key that is shared by the matching node of every isomorphic copy,
+ * which StructuralEquivalence uses to count each shape only once.
+ *
+ * GraphLoader registers the components it builds with the graph; of()
+ * returns them, or rebuilds them from the links if any link or node has
+ * been added or removed since.
+ */
+public class ConnectedComponents {
+
+	/** components with at most this many nodes are canonicalized */
+	public static final int SMALL_SIZE = Integer.getInteger("refex.smallComponent", 5);
+
+	private static final Map<AttributedGraph, ConnectedComponents> registered =
+		new WeakHashMap<AttributedGraph, ConnectedComponents>();
+
+	private final Map<Long, Integer> index = new HashMap<Long, Integer>();
+	private int[] parent = new int[16];
+	private int[] size = new int[16];
+	private int numNodes = 0;
+	private int numComponents = 0;
+	// graph.getModCount() when these components matched the graph
+	private long modCount = -1;
+
+	public ConnectedComponents() {
+	}
+
+	/**
+	 * Components of all links in graph.
+	 */
+	public ConnectedComponents(AttributedGraph graph) {
+		for(AttributedNode node : graph.getNodes())
+			find(node);
+		for(AttributedLink link : graph.getLinks())
+			union(link.src, link.dst);
+		modCount = graph.getModCount();
+	}
+
+	/**
+	 * Components registered for graph, rebuilt if links or nodes have
+	 * been added or removed since they were registered.
+	 */
+	public static synchronized ConnectedComponents of(AttributedGraph graph) {
+		ConnectedComponents cc = registered.get(graph);
+		if(cc == null || cc.modCount != graph.getModCount()) {
+			cc = new ConnectedComponents(graph);
+			registered.put(graph, cc);
+		}
+		return cc;
+	}
+
+	/**
+	 * Registers cc, which must hold all of graph's current links, as
+	 * graph's components.
+	 */
+	public static synchronized void register(AttributedGraph graph, ConnectedComponents cc) {
+		cc.modCount = graph.getModCount();
+		registered.put(graph, cc);
+	}
+
+	/*
+	 * index of node, adding it as a singleton if it is new
+	 */
+	private int indexOf(AttributedNode node) {
+		Integer i = index.get(node.id);
+		if(i == null) {
+			if(numNodes == parent.length) {
+				parent = Arrays.copyOf(parent, 2*numNodes);
+				size = Arrays.copyOf(size, 2*numNodes);
+			}
+			i = numNodes++;
+			parent[i] = i;
+			size[i] = 1;
+			index.put(node.id, i);
+			numComponents++;
+		}
+		return i;
+	}
+
+	private int root(int i) {
+		while(parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Component identifier of node.
+	 */
+	public int find(AttributedNode node) {
+		return root(indexOf(node));
+	}
+
+	/**
+	 * Records a link between src and dst.
+	 */
+	public void union(AttributedNode src, AttributedNode dst) {
+		int a = find(src), b = find(dst);
+		if(a == b) return;
+		if(size[a] < size[b]) { int t = a; a = b; b = t; }
+		parent[b] = a;
+		size[a] += size[b];
+		numComponents--;
+	}
+
+	/**
+	 * Number of nodes in the component of node.
+	 */
+	public int componentSize(AttributedNode node) {
+		return size[find(node)];
+	}
+
+	public int numComponents() {
+		return numComponents;
+	}
+
+	/**
+	 * Groups nodes of components with at most maxSize nodes by
+	 * component, in the order their components are first seen.
+	 */
+	public Collection<List<AttributedNode>> smallComponents(Collection<AttributedNode> nodes,
+			int maxSize) {
+		Map<Integer, List<AttributedNode>> ret = new LinkedHashMap<Integer, List<AttributedNode>>();
+		for(AttributedNode node : nodes) {
+			int c = find(node);
+			if(size[c] > maxSize) continue;
+			List<AttributedNode> members = ret.get(c);
+			if(members == null) {
+				members = new ArrayList<AttributedNode>(size[c]);
+				ret.put(c, members);
+			}
+			members.add(node);
+		}
+		return ret.values();
+	}
+
+	/**
+	 * Canonical keys for the nodes of one small component: two nodes get
+	 * equal keys exactly when some isomorphism between their components
+	 * (preserving link direction, link counts and total weightAttr per
+	 * ordered pair) maps one onto the other's position in the canonical
+	 * order. The key is the smallest encoding of the component's
+	 * adjacency matrix over all orderings of its nodes, followed by the
+	 * node's position in that ordering.
+	 */
+	public static long[][] canonicalKey(List<AttributedNode> members, String weightAttr) {
+		int n = members.size();
+		Map<AttributedNode, Integer> pos = new HashMap<AttributedNode, Integer>();
+		for(int i = 0; i < n; i++)
+			pos.put(members.get(i), i);
+		// counts[i][j] and weights[i][j] for links from member i to member j
+		long[][] counts = new long[n][n];
+		double[][] weights = new double[n][n];
+		for(AttributedNode node : members) {
+			int i = pos.get(node);
+			for(AttributedLink link : node.getOutLinks()) {
+				int j = pos.get(link.dst);
+				Object w = link.attrs.get(weightAttr);
+				counts[i][j]++;
+				weights[i][j] += w == null ? 0.0 : (Double)w;
+			}
+		}
+
+		int[] perm = new int[n];
+		for(int i = 0; i < n; i++) perm[i] = i;
+		long[] best = null;
+		int[] bestPerm = null;
+		do {
+			long[] enc = new long[2*n*n + 1];
+			enc[0] = n;
+			int k = 1;
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					enc[k++] = counts[perm[i]][perm[j]];
+					enc[k++] = Double.doubleToLongBits(weights[perm[i]][perm[j]]);
+				}
+			}
+			if(best == null || compare(enc, best) < 0) {
+				best = enc;
+				bestPerm = perm.clone();
+			}
+		} while(nextPermutation(perm));
+
+		long[][] ret = new long[n][];
+		for(int p = 0; p < n; p++) {
+			long[] key = Arrays.copyOf(best, best.length + 1);
+			key[best.length] = p;
+			ret[bestPerm[p]] = key;
+		}
+		return ret;
+	}
+
+	private static int compare(long[] a, long[] b) {
+		for(int i = 0; i < a.length; i++)
+			if(a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
+		return 0;
+	}
+
+	/*
+	 * advances perm to the next permutation in lexicographic order,
+	 * returning false after the last one
+	 */
+	private static boolean nextPermutation(int[] perm) {
+		int i = perm.length - 2;
+		while(i >= 0 && perm[i] >= perm[i+1]) i--;
+		if(i < 0) return false;
+		int j = perm.length - 1;
+		while(perm[j] <= perm[i]) j--;
+		int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+		for(int a = i+1, b = perm.length-1; a < b; a++, b--) {
+			t = perm[a]; perm[a] = perm[b]; perm[b] = t;
+		}
+		return true;
+	}
+}
@@ -172,30 +172,28 @@ public class Egonet{
 		if(attrNames == null) attrNames = new String[0];
 		
 		Counter<String> counts = new Counter<String>();
-		
-		Map<String, Double> ret = new HashMap<String, Double>();
-		ret.put("wn", 0.);
-		ret.put("weu", 0.);
-		ret.put("wet", 0.);
-		ret.put("xesu", 0.);
-		ret.put("xest", 0.);
-		ret.put("xedu", 0.);
-		ret.put("xedt", 0.);
-		ret.put("xeu", 0.);
-		ret.put("xet", 0.);
-		for(String attr : attrNames) {
-			ret.put("wea-" + attr, 0.);
-			ret.put("xesa-" + attr, 0.);
-			ret.put("xeda-" + attr, 0.);
-			ret.put("xea-" + attr, 0.);
-		}
-		
-		
+		countMembers(nodes, counts, attrNames, inAttr, outAttr, 
+				inAttrTotal, outAttrTotal);
+		return finishCounts(counts, attrNames);
+	}
+	
+	/**
+	 * Adds the contributions of the given egonet nodes to the raw counts.
+	 * Every count is a sum over egonet nodes, so the nodes can be split
+	 * into parts that are counted separately (e.g. on different threads)
+	 * and added together before calling finishCounts.
+	 */
+	protected void countMembers(Iterable<AttributedNode> members,
+			Counter<String> counts, String[] attrNames, 
+			Map<String, Map<AttributedNode, Counter<AttributedNode>>> inAttr,
+			Map<String, Map<AttributedNode, Counter<AttributedNode>>> outAttr,
+			Map<String, Map<AttributedNode, Double>> inAttrTotal,
+			Map<String, Map<AttributedNode, Double>> outAttrTotal) {
 		/*
 		 * Look at each node, updating counts for Within (w*) and eXternal (x*) counts.
 		 */
 		
-		for(AttributedNode n1 : nodes) {
+		for(AttributedNode n1 : members) {
 			// wn (within nodes) is just this.size() after loop.
 			counts.increment("wn");
 			
@@ -327,19 +325,51 @@ public class Egonet{
 			}
 			
 		}
-		
-		
-		for(String key : counts.keySet()) {
-			ret.put(key, counts.get(key).doubleValue());
-		}
-		ret.put("xeu", ret.get("xesu") + ret.get("xedu"));
-		ret.put("xet", ret.get("xest") + ret.get("xedt"));
-		for(String attr : attrNames) {
-			ret.put("xea-" + attr, ret.get("xesa-" + attr) + ret.get("xeda-"+attr));
-		}
-		
+	}
+	
+	/**
+	 * Turns raw counts from countMembers into the map returned by getCounts.
+	 */
+	protected static Map<String, Double> finishCounts(Counter<String> counts,
+			String[] attrNames) {
+		Map<String, Double> ret = new HashMap<String, Double>(counts);
+		finishCounts(ret, countKeys(attrNames, ""));
 		return ret;
 	}
+	
+	/**
+	 * Names of an egonet's counts with prefix in front, laid out for
+	 * finishCounts: wn, weu, wet, xesu, xest, xedu, xedt, xeu, xet, then
+	 * wea-, xesa-, xeda- and xea- of each attribute.
+	 */
+	protected static String[] countKeys(String[] attrNames, String prefix) {
+		String[] keys = new String[9 + 4*attrNames.length];
+		int k = 0;
+		for(String key : new String[]{"wn", "weu", "wet", "xesu", "xest", 
+				"xedu", "xedt", "xeu", "xet"})
+			keys[k++] = prefix + key;
+		for(String attr : attrNames)
+			for(String key : new String[]{"wea-", "xesa-", "xeda-", "xea-"})
+				keys[k++] = prefix + key + attr;
+		return keys;
+	}
+	
+	/**
+	 * Fills in, in place, the zero and combined counts of the egonet
+	 * whose raw counts are under keys (from countKeys), so several
+	 * egonets' counts can be finished in one map.
+	 */
+	protected static void finishCounts(Map<String, Double> ret, String[] keys) {
+		for(int k = 0; k < keys.length; k++) {
+			// xeu, xet and xea- are set below
+			if(k == 7 || k == 8 || (k >= 9 && (k - 9) % 4 == 3)) continue;
+			if(!ret.containsKey(keys[k])) ret.put(keys[k], 0.);
+		}
+		ret.put(keys[7], ret.get(keys[3]) + ret.get(keys[5]));
+		ret.put(keys[8], ret.get(keys[4]) + ret.get(keys[6]));
+		for(int k = 9; k < keys.length; k += 4)
+			ret.put(keys[k+3], ret.get(keys[k+1]) + ret.get(keys[k+2]));
+	}
 			
 	
 	
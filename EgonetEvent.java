@@ -0,0 +1,46 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import jdk.jfr.*;
+
+
+/**
+ * Flight Recorder event for one egonet count in EgonetGenerator. Off by
+ * default; when enabled, only egonets slower than the threshold are
+ * recorded, which singles out hub nodes whose egonets blow up. Enable
+ * with the settings in refex.jfc.
+ */
+@Name("refex.Egonet")
+@Label("Egonet Count")
+@Category("ReFeX")
+@Description("Counts for the egonet around a node at one level")
+@Enabled(false)
+@Threshold("10 ms")
+@StackTrace(false)
+public class EgonetEvent extends Event {
+
+	@Label("Center")
+	@Description("nodeID of the center node (the first one if there are several)")
+	String center;
+
+	@Label("Centers")
+	int centers;
+
+	@Label("Level")
+	int level;
+
+	@Label("Center Degree")
+	@Description("in plus out links of the center nodes")
+	long degree;
+
+	@Label("Egonet Size")
+	@Description("nodes in the egonet")
+	int size;
+
+	@Label("Attributes")
+	@Description("edge and vertex attributes counted")
+	int attributes;
+}
@@ -5,6 +5,7 @@
  */
 
 import java.util.*;
+import java.util.concurrent.*;
 
 
 
@@ -29,6 +30,14 @@ public class EgonetGenerator {
 	
 	AttributedGraph filteredGraph;
 	
+	/**
+	 * Level 0 and 1 egonets are counted with SortedAdjacency unless the
+	 * refex.sortedAdjacency system property is false.
+	 */
+	static final boolean SORTED_ADJACENCY = !"false".equals(
+			System.getProperty("refex.sortedAdjacency"));
+	SortedAdjacency adjacency;
+	
 	
 	/**
 	 * 
@@ -72,6 +81,19 @@ public class EgonetGenerator {
 			}
 		}
 
+		if(SORTED_ADJACENCY)
+			adjacency = new SortedAdjacency(filteredGraph, edgeAttrNames, vertAttrNames);
+		else
+			buildMaps();
+	}
+	
+	/*
+	 * Builds the per-node summary maps used by Egonet. With SortedAdjacency
+	 * they are only needed for egonets beyond level 1 and for left and
+	 * right egonets, so they are built on first use.
+	 */
+	synchronized void buildMaps() {
+		if(inLinks != null) return;
 		inLinks = new HashMap<AttributedNode, Counter<AttributedNode>>();
 		outLinks = new HashMap<AttributedNode, Counter<AttributedNode>>();
 		totalIn = new HashMap<AttributedNode, Integer>();
@@ -129,19 +151,206 @@ public class EgonetGenerator {
 		
 		
 		
-		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
-		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
-		return new Egonet(centerNodes, 
-				level, 
-				inLinks, 
-				outLinks, 
-				totalIn, 
-				totalOut).
-				getCounts(attrNames, 
-						inAttr, 
-						outAttr, 
-						inAttrTotal, 
-						outAttrTotal);
+		EgonetEvent event = new EgonetEvent();
+		event.begin();
+		Map<String, Double> counts;
+		int size;
+		if(adjacency != null && level <= 1) {
+			int[] members = adjacency.members(centers, level);
+			size = members.length;
+			if(NodeScheduler.shouldSplit(size))
+				counts = splitCounts(members, attrNames);
+			else {
+				Counter<String> raw = new Counter<String>();
+				adjacency.countMembers(members, 0, size, raw);
+				counts = Egonet.finishCounts(raw, attrNames);
+			}
+		}
+		else {
+			buildMaps();
+			Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
+			for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
+			Egonet egonet = new Egonet(centerNodes, 
+					level, 
+					inLinks, 
+					outLinks, 
+					totalIn, 
+					totalOut);
+			size = egonet.size();
+			if(NodeScheduler.shouldSplit(size))
+				counts = splitCounts(egonet, attrNames);
+			else
+				counts = egonet.getCounts(attrNames, 
+							inAttr, 
+							outAttr, 
+							inAttrTotal, 
+							outAttrTotal);
+		}
+		commit(event, centers, level, size, attrNames.length);
+		return counts;
+	}
+	
+	private void commit(EgonetEvent event, Set<Long> centers, int level, 
+			int size, int attributes) {
+		event.end();
+		if(event.shouldCommit()) {
+			for(long id : centers) {
+				AttributedNode node = filteredGraph.getNode(id);
+				if(event.center == null)
+					event.center = String.valueOf(node.getAttr("nodeID"));
+				event.degree += node.numInLinks() + node.numOutLinks();
+			}
+			event.centers = centers.size();
+			event.level = level;
+			event.size = size;
+			event.attributes = attributes;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Gets the counts for the symmetric, left and right egonets around
+	 * these nodes together. The symmetric counts are under the keys of
+	 * getCounts, the left and right ones under the same keys prefixed
+	 * with "l" and "r". Level 0 egonets are all the same. At level 1,
+	 * with SortedAdjacency, the three are counted in one pass over the
+	 * symmetric egonet; otherwise each is built and counted separately.
+	 * 
+	 * @param centers nodes at the center of the egonet
+	 * @param level how far from centers to travel
+	 * @return see Egonet.getCounts()
+	 */
+	public Map<String, Double> getDirectedCounts(Set<Long> centers, int level) {
+		String[] attrNames = new String[edgeAttrNames.length + vertAttrNames.length];
+		int i = 0;
+		for (String attr : edgeAttrNames) attrNames[i++] = attr;
+		for (String attr : vertAttrNames) attrNames[i++] = attr;
+		
+		if(adjacency == null || level != 1) {
+			Map<String, Double> counts = getCounts(centers, level);
+			Map<String, Double> left = counts, right = counts;
+			if(level > 0) {
+				buildMaps();
+				Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
+				for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
+				left = new LeftEgonet(centerNodes, level, 
+						inLinks, outLinks, totalIn, totalOut).getCounts(attrNames, 
+								inAttr, outAttr, inAttrTotal, outAttrTotal);
+				right = new RightEgonet(centerNodes, level, 
+						inLinks, outLinks, totalIn, totalOut).getCounts(attrNames, 
+								inAttr, outAttr, inAttrTotal, outAttrTotal);
+			}
+			Map<String, Double> ret = new HashMap<String, Double>(counts);
+			for(Map.Entry<String, Double> e : left.entrySet())
+				ret.put("l" + e.getKey(), e.getValue());
+			for(Map.Entry<String, Double> e : right.entrySet())
+				ret.put("r" + e.getKey(), e.getValue());
+			return ret;
+		}
+		
+		EgonetEvent event = new EgonetEvent();
+		event.begin();
+		int[] members = adjacency.members(centers, level);
+		int[][] sides = adjacency.directedMembers(centers);
+		Counter<String> raw;
+		if(NodeScheduler.shouldSplit(members.length))
+			raw = splitDirected(members, sides[0], sides[1]);
+		else {
+			raw = new Counter<String>();
+			adjacency.countMembers(members, sides[0], sides[1], 0, members.length, raw);
+		}
+		
+		// the three egonets' raw counts are under distinct keys
+		Map<String, Double> ret = new HashMap<String, Double>(raw);
+		for(String[] keys : adjacency.keys)
+			Egonet.finishCounts(ret, keys);
+		commit(event, centers, level, members.length, attrNames.length);
+		return ret;
+	}
+	
+	public Map<String, Double> getDirectedCounts(Long center, int level) {
+		Set<Long> centers = new HashSet<Long>();
+		centers.add(center);
+		return getDirectedCounts(centers, level);
+	}
+	
+	/*
+	 * Counts a large egonet in parts, each covering a slice of its
+	 * members, on the NodeScheduler pool.
+	 */
+	private Map<String, Double> splitCounts(final Egonet egonet, 
+			final String[] attrNames) {
+		List<AttributedNode> members = new ArrayList<AttributedNode>(egonet.nodes);
+		int numParts = NodeScheduler.THREADS;
+		List<Callable<Counter<String>>> parts = new ArrayList<Callable<Counter<String>>>();
+		for(int p = 0; p < numParts; p++) {
+			final List<AttributedNode> part = members.subList(
+					p * members.size() / numParts, (p+1) * members.size() / numParts);
+			parts.add(new Callable<Counter<String>>() {
+				public Counter<String> call() {
+					Counter<String> counts = new Counter<String>();
+					egonet.countMembers(part, counts, attrNames, 
+							inAttr, outAttr, inAttrTotal, outAttrTotal);
+					return counts;
+				}
+			});
+		}
+		return sumParts(parts, attrNames);
+	}
+	
+	/*
+	 * As above, for an egonet given by its sorted SortedAdjacency members.
+	 */
+	private Map<String, Double> splitCounts(final int[] members, 
+			final String[] attrNames) {
+		int numParts = NodeScheduler.THREADS;
+		List<Callable<Counter<String>>> parts = new ArrayList<Callable<Counter<String>>>();
+		for(int p = 0; p < numParts; p++) {
+			final int from = (int)((long)p * members.length / numParts);
+			final int to = (int)((long)(p+1) * members.length / numParts);
+			parts.add(new Callable<Counter<String>>() {
+				public Counter<String> call() {
+					Counter<String> counts = new Counter<String>();
+					adjacency.countMembers(members, from, to, counts);
+					return counts;
+				}
+			});
+		}
+		return sumParts(parts, attrNames);
+	}
+	
+	/*
+	 * As above, with the left and right counts as well.
+	 */
+	private Counter<String> splitDirected(final int[] members, 
+			final int[] left, final int[] right) {
+		int numParts = NodeScheduler.THREADS;
+		List<Callable<Counter<String>>> parts = new ArrayList<Callable<Counter<String>>>();
+		for(int p = 0; p < numParts; p++) {
+			final int from = (int)((long)p * members.length / numParts);
+			final int to = (int)((long)(p+1) * members.length / numParts);
+			parts.add(new Callable<Counter<String>>() {
+				public Counter<String> call() {
+					Counter<String> counts = new Counter<String>();
+					adjacency.countMembers(members, left, right, from, to, counts);
+					return counts;
+				}
+			});
+		}
+		return sum(parts);
+	}
+	
+	private static Map<String, Double> sumParts(
+			List<Callable<Counter<String>>> parts, String[] attrNames) {
+		return Egonet.finishCounts(sum(parts), attrNames);
+	}
+	
+	private static Counter<String> sum(List<Callable<Counter<String>>> parts) {
+		Counter<String> total = new Counter<String>();
+		for(Counter<String> counts : NodeScheduler.split(parts))
+			for(Map.Entry<String, Double> e : counts.entrySet())
+				total.increment(e.getKey(), e.getValue());
+		return total;
 	}
 	
 	public Map<String, Double> getCounts(Long center, int level) {
@@ -160,6 +369,7 @@ public class EgonetGenerator {
 	 * @return see Egonet.getCounts()
 	 */
 	public Map<String, Double> getLeftCounts(Set<Long> centers, int level) {
+		buildMaps();
 		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
 		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
 		return new LeftEgonet(centerNodes, 
@@ -190,6 +400,7 @@ public class EgonetGenerator {
 	 * @return see Egonet.getCounts()
 	 */
 	public Map<String, Double> getRightCounts(Set<Long> centers, int level) {
+		buildMaps();
 		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
 		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
 		return new RightEgonet(centerNodes, 
@@ -213,6 +424,7 @@ public class EgonetGenerator {
 	
 	
 	public int getExternalNodes(Set<Long> centers, int level) {
+		buildMaps();
 		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
 		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
 		return new Egonet(centerNodes, 
@@ -230,6 +442,7 @@ public class EgonetGenerator {
 	}
 	
 	public int getLeftExternalNodes(Set<Long> centers, int level) {
+		buildMaps();
 		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
 		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
 		return new LeftEgonet(centerNodes, 
@@ -247,6 +460,7 @@ public class EgonetGenerator {
 	}
 	
 	public int getRightExternalNodes(Set<Long> centers, int level) {
+		buildMaps();
 		Set<AttributedNode> centerNodes = new HashSet<AttributedNode>();
 		for(long id : centers) centerNodes.add(filteredGraph.getNode(id));
 		return new RightEgonet(centerNodes, 
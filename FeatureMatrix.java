@@ -0,0 +1,91 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Node-by-feature matrix produced by ReFeX. Values are stored in a
+ * single column-major double array, so row i, column j is at
+ * values[i + j*numRows]. This is the layout RoleExtractor works on,
+ * so the matrix can be handed to role discovery without copying.
+ */
+public class FeatureMatrix {
+	public final String[] ids;
+	public final String[] names;
+	public final double[] values;
+	public final int numRows, numCols;
+
+	public FeatureMatrix(String[] ids, String[] names, double[] values) {
+		if(values.length != ids.length * names.length)
+			throw new IllegalArgumentException("Expected " +
+					ids.length * names.length + " values, got " + values.length);
+		this.ids = ids;
+		this.names = names;
+		this.values = values;
+		this.numRows = ids.length;
+		this.numCols = names.length;
+	}
+
+	/**
+	 * Collects the named attributes of every node in the graph. Rows
+	 * follow the iteration order of graph.getNodes() and are labelled
+	 * with each node's "nodeID" attribute.
+	 */
+	public static FeatureMatrix fromGraph(AttributedGraph graph,
+			List<String> featureNames) {
+		Collection<AttributedNode> nodes = graph.getNodes();
+		int n = nodes.size(), d = featureNames.size();
+		String[] ids = new String[n];
+		String[] names = featureNames.toArray(new String[d]);
+		double[] values = new double[n*d];
+
+		int i = 0;
+		for(AttributedNode node : nodes) {
+			ids[i] = (String)node.getAttr("nodeID");
+			for(int j = 0; j < d; j++)
+				values[i + j*n] = (Double)node.getAttr(names[j]);
+			i++;
+		}
+		return new FeatureMatrix(ids, names, values);
+	}
+
+	public double get(int row, int col) {
+		return values[row + col*numRows];
+	}
+
+	/**
+	 * Writes one line per node: the node ID followed by its feature
+	 * values, comma separated.
+	 */
+	public void write(String fileName) throws IOException {
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < numRows; i++) {
+			sb.setLength(0);
+			sb.append(ids[i]);
+			for(int j = 0; j < numCols; j++)
+				sb.append(',').append(values[i + j*numRows]);
+			out.println(sb);
+		}
+		out.close();
+	}
+
+	/**
+	 * Writes the feature names on one comma-separated line, the format
+	 * CalculateFeatures reads.
+	 */
+	public void writeNames(String fileName) throws IOException {
+		PrintStream out = new PrintStream(fileName);
+		for(int j = 0; j < numCols-1; j++)
+			out.print(names[j] + ",");
+		if(numCols > 0)
+			out.print(names[numCols-1]);
+		out.println();
+		out.close();
+	}
+}
@@ -39,101 +39,44 @@ public class GenerateFeatures {
 		new HashMap<String, Map<String, Boolean>>();
 	
 	protected static List<String> featureNames = new ArrayList<String>();
-	protected static Map<String, List<Double>> featureValues = 
-		new HashMap<String, List<Double>>();
+	protected static FeatureMatrix features;
+	protected static RunMetrics metrics;
 	
 	protected static void computeAttributes(String graphFile, 
 			int maxDist, double binSize) throws IOException{
-		String curLine, uid, vid;
-		Double weight;
 		int numIters = 0;
-		long weighted = 0, unweighted = 0;
+		if(metrics == null) metrics = new RunMetrics("GenerateFeatures");
 
-		AttributedGraph graph = new AttributedGraph();
-
-
-		BufferedReader reader = new BufferedReader(new FileReader(graphFile));
-
-		graph.buildNodeIndex("nodeID");
-		while ((curLine = reader.readLine()) != null) {
-			String[] fields = curLine.split(",");
-			uid = new String(fields[0]);
-			vid = new String(fields[1]);
-			weight = new Double(fields[2]);
-			unweighted++;
-			weighted += weight;
-
-			AttributedNode srcNode = graph.getNode("nodeID", uid);
-			if (srcNode == null) {
-				srcNode = graph.addNode();
-				srcNode.setAttr("nodeID", uid);
-				graph.updateIndex(srcNode);
-			}
-
-			AttributedNode dstNode = graph.getNode("nodeID", vid);
-			if (dstNode == null) {
-				dstNode = graph.addNode();
-				dstNode.setAttr("nodeID", vid);
-				graph.updateIndex(dstNode);
-			}
-
-			Map<String,Object> attrs = new HashMap<String,Object>();
-			attrs.put("wgt", weight);
-
-			graph.addLink(srcNode, dstNode, attrs);
-		}
+		GraphLoader loader = new GraphLoader();
+		loader.metrics = metrics;
+		AttributedGraph graph = loader.load(graphFile);
+		long weighted = loader.weighted, unweighted = loader.unweighted;
+		metrics.numNodes = graph.getNumNodes();
+		metrics.put("components", ConnectedComponents.of(graph).numComponents());
+		metrics.numEdges = unweighted;
+		metrics.put("graph", graphFile);
+		metrics.put("maxDist", maxDist);
+		metrics.put("binSize", binSize);
 
 
 		int j = 0;
+		String phase = "iteration " + j + ": ";
 		System.out.print(TimeUtils.dateAsString(System.currentTimeMillis())
 				+ ": Iteration " + (j++));
 
-		graph.buildNodeIndex("nodeID");
-
 		List<String> allReps = new ArrayList<String>();
 
+		metrics.begin(phase + "egonet");
 		String[] primitives = RankedRoleFinder.calculateAttrs(graph, null, null);
+		metrics.end(phase + "egonet");
 
 		/*
 		 * Compute vertical bins for *all* features. Replace feature values with bin values
 		 * and remove any features that offer no discriminatory power.
 		 */
-		Set<String> constants = new HashSet<String>();
-		for(String attr : primitives) {
-			sortedAttrSets.put(attr, new HashMap<Double, Set<AttributedNode>>());
-			Map<Double, Set<AttributedNode>> sortedAttrSet = sortedAttrSets.get(attr);
-			maxBins.put(attr, 0.0);
-
-			
-			int sum = 0;
-			String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
-			for (AttributedNode n1 : graph.getNodes()) {
-				double rank = (Double)n1.getAttr(ranks);
-				n1.setAttr(attr, rank);
-				n1.attrs.remove(ranks);
-				
-				if(rank > maxDist && rank-maxDist > TOLERANCE) {
-					if (!sortedAttrSet.containsKey(rank)) {
-						sortedAttrSet.put(rank, new HashSet<AttributedNode>());
-					}
-				
-					sortedAttrSet.get(rank).add(n1);
-				}
-				
-				if(rank > maxBins.get(attr))
-					maxBins.put(attr, rank);
-				
-				sum += rank;
-			}
-			if(sum == 0) {
-				sortedAttrSets.remove(attr);
-				maxBins.remove(attr);
-				for (AttributedNode n1 : graph.getNodes()) {
-					n1.attrs.remove(attr);
-					constants.add(attr);
-				}
-			}
-		}
+		metrics.begin(phase + "binning");
+		Set<String> constants = binAttributes(graph, primitives, maxDist, binSize);
+		metrics.end(phase + "binning");
 
 //		for (AttributedNode n1 : graph.getNodes()) {
 //			System.out.println(n1.attrs);
@@ -148,6 +91,7 @@ public class GenerateFeatures {
 			}
 		}
 		
+		metrics.begin(phase + "pruning");
 		Set<String> reps = RankedRoleFinder.calculateReps(graph, maxDist, candidates, maxBins,
 				sortedAttrSets, memoizedMatches);
 		
@@ -162,14 +106,17 @@ public class GenerateFeatures {
 				}
 			}
 		}
+		metrics.end(phase + "pruning");
 
 		String[] attrs = new String[reps.size()];
 		int i = 0;
 
+		metrics.begin(phase + "binning");
 		for(String rep : reps) {
 			allReps.add(rep);
 			attrs[i++] = RankedRoleFinder.verticalBin(graph, rep, binSize);
 		}
+		metrics.end(phase + "binning");
 
 		numIters = 1;
 
@@ -177,7 +124,10 @@ public class GenerateFeatures {
 		
 		while(attrs.length > 0 && numIters++ < MAX_ITERATIONS) {
 			maxDist += 1;
+			phase = "iteration " + j + ": ";
+			metrics.begin(phase + "egonet");
 			String[] features = RankedRoleFinder.calculateAttrs(graph, null, attrs);
+			metrics.end(phase + "egonet");
 			
 			System.out.print(TimeUtils.dateAsString(System.currentTimeMillis())
 					+ ": Iteration " + (j++));
@@ -186,42 +136,9 @@ public class GenerateFeatures {
 			 * Compute vertical bins for *all* features. Replace feature values with bin values
 			 * and remove any features that offer no discriminatory power.
 			 */
-			constants = new HashSet<String>();
-			for(String attr : features) {
-				sortedAttrSets.put(attr, new HashMap<Double, Set<AttributedNode>>());
-				Map<Double, Set<AttributedNode>> sortedAttrSet = sortedAttrSets.get(attr);
-				maxBins.put(attr, 0.0);
-				
-				
-				int sum = 0;
-				String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
-				for (AttributedNode n1 : graph.getNodes()) {
-					double rank = (Double)n1.getAttr(ranks);
-					n1.setAttr(attr, rank);
-					n1.attrs.remove(ranks);
-					
-					if(rank > maxDist && rank-maxDist > TOLERANCE) {
-						if (!sortedAttrSet.containsKey(rank)) {
-							sortedAttrSet.put(rank, new HashSet<AttributedNode>());
-						}
-					
-						sortedAttrSet.get(rank).add(n1);
-					}
-					
-					if(rank > maxBins.get(attr))
-						maxBins.put(attr, rank);
-					
-					sum += rank;
-				}
-				if(sum == 0) {
-					sortedAttrSets.remove(attr);
-					maxBins.remove(attr);
-					for (AttributedNode n1 : graph.getNodes()) {
-						n1.attrs.remove(attr);
-						constants.add(attr);
-					}
-				}
-			}
+			metrics.begin(phase + "binning");
+			constants = binAttributes(graph, features, maxDist, binSize);
+			metrics.end(phase + "binning");
 
 //			for (AttributedNode n1 : graph.getNodes()) {
 //				System.out.println(n1.attrs);
@@ -240,6 +157,7 @@ public class GenerateFeatures {
 			for(String s : allReps) candidates.add(s);
 
 
+			metrics.begin(phase + "pruning");
 			reps = RankedRoleFinder.calculateReps(graph, maxDist, candidates, maxBins,
 					sortedAttrSets, memoizedMatches);
 
@@ -253,15 +171,18 @@ public class GenerateFeatures {
 					}
 				}
 			}
+			metrics.end(phase + "pruning");
 
 			attrs = new String[reps.size() - allReps.size()];
 			i = 0;
 
+			metrics.begin(phase + "binning");
 			for (String rep : reps) {
 				if(allReps.contains(rep)) continue;
 				allReps.add(rep);
 				attrs[i++] = RankedRoleFinder.verticalBin(graph, rep, binSize);
 			}
+			metrics.end(phase + "binning");
 			System.out.println(" " + allReps.size() + " features");
 
 		}
@@ -270,36 +191,82 @@ public class GenerateFeatures {
 			featureNames.add(rep);
 		}
 		
-		for(AttributedNode node : graph.getNodes()) {
-			String nodeID = (String)node.getAttr("nodeID");
-			featureValues.put(nodeID, new ArrayList<Double>());
-			for(String comp : featureNames) 
-				featureValues.get(nodeID).add((Double)node.getAttr(comp));			
-		}
+		metrics.begin("featureMatrix");
+		features = FeatureMatrix.fromGraph(graph, featureNames);
+		metrics.end("featureMatrix");
 		sortedAttrSets.clear();
 		graph = null;
 		System.gc();
 
 
 		System.out.println("Graph: " + graphFile);
-		System.out.println("Nodes: " + featureValues.size());
+		System.out.println("Nodes: " + features.numRows);
 		System.out.println("Edges: " + unweighted);
 		System.out.println("Edge Weight: " + weighted);
+
+		metrics.put("edgeWeight", weighted);
+		metrics.put("iterations", j);
+		metrics.put("features", featureNames.size());
+		metrics.setCounter("agreementChecks", RankedRoleFinder.checks);
+		metrics.setCounter("corrChecks", RankedRoleFinder.corrChecks);
+		metrics.setCounter("memoHits", RankedRoleFinder.memoHits);
+		metrics.setCounter("dedupedNodes", RankedRoleFinder.dedupedNodes);
+	}
+	
+
+	/**
+	 * Compute vertical bins for the given features. Replace feature values
+	 * with bin values, index nodes by bin in sortedAttrSets and maxBins, and
+	 * remove any features that offer no discriminatory power.
+	 * 
+	 * @return the features that were removed because every bin was zero
+	 */
+	protected static Set<String> binAttributes(AttributedGraph graph,
+			String[] attrs, int maxDist, double binSize) {
+		Set<String> constants = new HashSet<String>();
+		for(String attr : attrs) {
+			sortedAttrSets.put(attr, new HashMap<Double, Set<AttributedNode>>());
+			Map<Double, Set<AttributedNode>> sortedAttrSet = sortedAttrSets.get(attr);
+			maxBins.put(attr, 0.0);
+
+			
+			int sum = 0;
+			String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
+			for (AttributedNode n1 : graph.getNodes()) {
+				double rank = (Double)n1.getAttr(ranks);
+				n1.setAttr(attr, rank);
+				n1.attrs.remove(ranks);
+				
+				if(rank > maxDist && rank-maxDist > TOLERANCE) {
+					if (!sortedAttrSet.containsKey(rank)) {
+						sortedAttrSet.put(rank, new HashSet<AttributedNode>());
+					}
+				
+					sortedAttrSet.get(rank).add(n1);
+				}
+				
+				if(rank > maxBins.get(attr))
+					maxBins.put(attr, rank);
+				
+				sum += rank;
+			}
+			if(sum == 0) {
+				sortedAttrSets.remove(attr);
+				maxBins.remove(attr);
+				for (AttributedNode n1 : graph.getNodes()) {
+					n1.attrs.remove(attr);
+					constants.add(attr);
+				}
+			}
+		}
+		return constants;
 	}
 	
 		
 	protected static void writeFeatures(
-			Map<String, List<Double>> featureValues,
+			FeatureMatrix features,
 			String fileName) throws IOException {
-
-		PrintStream out = new PrintStream(fileName);
-		for(String s : featureValues.keySet()) {
-			out.print(s + ",");
-			List<Double> vals = featureValues.get(s);
-			for(int i = 0; i < vals.size()-1; i++)
-				out.print(vals.get(i) + ",");
-			out.println(vals.get(vals.size()-1));
-		}
+		features.write(fileName);
 	}
 	
 	
@@ -341,6 +308,8 @@ public class GenerateFeatures {
 
 		featFile = baseOut + "-featureNames.csv";
 		outFile = baseOut + "-featureValues.csv";
+		String reportFile = baseOut + "-runReport.json";
+		metrics = new RunMetrics("GenerateFeatures");
 		
 		System.out.println("Lattice Threshold = " + maxDist);
 		System.out.println("Bin Size = " + binSize);
@@ -363,13 +332,17 @@ public class GenerateFeatures {
 
 		System.out.println("Feature Names: writing " + featFile);
 		
+		metrics.begin("output");
 		PrintStream out = new PrintStream(featFile);
 		for(int i = 0; i < featureNames.size()-1; i++) 
 			out.print(featureNames.get(i) + ",");
 		out.println(featureNames.get(featureNames.size()-1));
 		
 		System.out.println("Feature Values: writing " + outFile);
-		writeFeatures(featureValues, outFile);
+		writeFeatures(features, outFile);
+		metrics.end("output");
+		System.out.println("Run Report: writing " + reportFile);
+		metrics.write(reportFile);
 		System.out.println();
 		
 		
@@ -0,0 +1,186 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+
+/**
+ *
+ * This is a main class that runs ReFeX and RolX end to end in one JVM.
+ * Features are generated exactly as in GenerateFeatures, then handed to
+ * RoleExtractor in memory as a column-major double array. No feature
+ * values are written or parsed between the two stages; the role model
+ * is written once at the end.
+ *
+ * Command line arguments:
+ * graphFile: csv format with source,destination,weight records
+ * maxDist: same as GenerateFeatures.java
+ * binSize: same as GenerateFeatures.java
+ * outputFileBase: base string for output files
+ * algorithm: [optional] NMF solver, mu (default) or hals
+ * init: [optional] nndsvd (default) or rand
+ * format: [optional] txt (default) writes the same ASCII matrices as
+ *         Matlab's save -ASCII; bin writes big-endian binary matrices
+ *         (int rows, int cols, then doubles in column-major order)
+ */
+public class GenerateRoles {
+
+	protected static void writeMatrix(double[] A, int rows, int cols,
+			String fileName, boolean binary) throws IOException {
+		if(binary) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(fileName)));
+			out.writeInt(rows);
+			out.writeInt(cols);
+			for(double x : A) out.writeDouble(x);
+			out.close();
+			return;
+		}
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < rows; i++) {
+			sb.setLength(0);
+			for(int j = 0; j < cols; j++)
+				sb.append(String.format("%16.7e", A[i + j*rows]));
+			out.println(sb);
+		}
+		out.close();
+	}
+
+	/**
+	 * Reads a matrix written by writeMatrix or by Matlab's save -ASCII.
+	 *
+	 * @param dims set to {rows, cols}
+	 * @return the values in column-major order
+	 */
+	protected static double[] readMatrix(String fileName, boolean binary,
+			int[] dims) throws IOException {
+		if(binary) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(fileName)));
+			dims[0] = in.readInt();
+			dims[1] = in.readInt();
+			double[] A = new double[dims[0] * dims[1]];
+			for(int x = 0; x < A.length; x++) A[x] = in.readDouble();
+			in.close();
+			return A;
+		}
+
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		String curLine;
+		while((curLine = reader.readLine()) != null) {
+			curLine = curLine.trim();
+			if(curLine.length() > 0) rows.add(curLine.split("\\s+"));
+		}
+		reader.close();
+		dims[0] = rows.size();
+		dims[1] = rows.isEmpty() ? 0 : rows.get(0).length;
+		double[] A = new double[dims[0] * dims[1]];
+		for(int i = 0; i < dims[0]; i++)
+			for(int j = 0; j < dims[1]; j++)
+				A[i + j*dims[0]] = Double.parseDouble(rows.get(i)[j]);
+		return A;
+	}
+
+	protected static void writeIds(String[] ids, String fileName)
+			throws IOException {
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		for(String id : ids) out.println(id);
+		out.close();
+	}
+
+
+	/**
+	 * Entry point for end-to-end role discovery.
+	 *
+	 * All graphs in 3-column .csv format source,target,weight
+	 * (String,String,Double)
+	 *
+	 * @param args = graphFile maxDist binSize baseOutFile [algorithm] [init] [format]
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws IOException, ParseException{
+		String graphFile = null;
+		int maxDist = -1;
+		double binSize = -1;
+		String baseOut = null;
+		NMF.Algorithm alg = NMF.Algorithm.MU;
+		boolean nndsvd = true, binary = false;
+		try {
+			graphFile = args[0];
+			maxDist = Integer.parseInt(args[1]);
+			binSize = Double.parseDouble(args[2]);
+			baseOut = args[3];
+			if(args.length > 4)
+				alg = NMF.Algorithm.valueOf(args[4].toUpperCase());
+			if(args.length > 5) {
+				if(!args[5].equals("nndsvd") && !args[5].equals("rand"))
+					throw new IllegalArgumentException(args[5]);
+				nndsvd = args[5].equals("nndsvd");
+			}
+			if(args.length > 6) {
+				if(!args[6].equals("txt") && !args[6].equals("bin"))
+					throw new IllegalArgumentException(args[6]);
+				binary = args[6].equals("bin");
+			}
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java GenerateRoles targetGraphFile " +
+			"maxDist binSize outputFileBase [mu|hals] [nndsvd|rand] [txt|bin]");
+			return;
+		}
+
+		String ext = binary ? ".bin" : ".txt";
+		String featFile = baseOut + "-featureNames.csv";
+		String nodeFile = baseOut + "-nodeRoles" + ext;
+		String roleFile = baseOut + "-roleFeatures" + ext;
+		String idFile = baseOut + "-ids.txt";
+		String reportFile = baseOut + "-runReport.json";
+		RunMetrics metrics = new RunMetrics("GenerateRoles");
+		GenerateFeatures.metrics = metrics;
+
+		System.out.println("Lattice Threshold = " + maxDist);
+		System.out.println("Bin Size = " + binSize);
+		System.out.println();
+
+		GenerateFeatures.computeAttributes(graphFile, maxDist, binSize);
+		FeatureMatrix features = GenerateFeatures.features;
+		System.out.println();
+		System.out.println(features.numCols + " features");
+		System.out.println();
+
+		metrics.begin("roles");
+		RoleExtractor.Model model =
+			new RoleExtractor(alg, nndsvd, true).extract(features);
+		metrics.end("roles");
+		metrics.put("roles", model.numRoles);
+		System.out.println();
+		System.out.println(model.numRoles + " roles");
+		System.out.println();
+
+		metrics.begin("output");
+		System.out.println("Feature Names: writing " + featFile);
+		features.writeNames(featFile);
+		System.out.println("Node Roles: writing " + nodeFile);
+		writeMatrix(model.G, model.numNodes, model.numRoles, nodeFile, binary);
+		System.out.println("Role Features: writing " + roleFile);
+		writeMatrix(model.F, model.numRoles, model.numFeatures, roleFile, binary);
+		System.out.println("IDs: writing " + idFile);
+		writeIds(features.ids, idFile);
+		metrics.end("output");
+		System.out.println("Run Report: writing " + reportFile);
+		metrics.write(reportFile);
+		System.out.println();
+	}
+}
@@ -0,0 +1,371 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Deterministic generator for synthetic weighted graphs, used to test how
+ * ReFeX scales far beyond the bundled sample data. The same model,
+ * parameters and seed always produce the same edges in the same order.
+ *
+ * Models:
+ * RMAT: recursive matrix (Graph500 parameters a=0.57, b=c=0.19, d=0.05)
+ *       with node labels shuffled so hubs are not clustered at low ids
+ * BA: Barabasi-Albert preferential attachment; each new node links to
+ *     numEdges/numNodes earlier nodes
+ * ER: Erdos-Renyi G(n,m), endpoints chosen uniformly at random
+ * CHUNGLU: Chung-Lu graph whose expected degrees follow a power law with
+ *          the given exponent; smaller exponents are more skewed
+ *
+ * Self-loops are never produced; parallel edges can be. Edge weights are
+ * multiples of 0.25 up to maxWeight (all 1 when maxWeight is 0).
+ * Undirected graphs are emitted as both directed edges, which is how the
+ * undirected sample data is stored, so numEdges counts edge pairs.
+ *
+ * Edges are pushed to an EdgeSink as they are generated, so nothing
+ * proportional to the number of edges is held in memory. CsvSink writes
+ * the 3-column source,target,weight format read by GraphLoader and
+ * GraphSink builds the AttributedGraph directly.
+ *
+ * Command line arguments:
+ * model: rmat, ba, er or chunglu
+ * numNodes: number of nodes
+ * numEdges: number of (undirected) edges
+ * seed: random seed
+ * outputFile: edge file to write
+ * options: [optional] directed, maxWeight=W (default 2.5),
+ *          exponent=G for chunglu (default 2.1)
+ */
+public class GraphGenerator {
+
+	public enum Model {RMAT, BA, ER, CHUNGLU}
+
+	/** Receives generated edges; node ids are 0 .. numNodes-1. */
+	public interface EdgeSink {
+		void edge(int src, int dst, double weight) throws IOException;
+	}
+
+	public final Model model;
+	public final int numNodes;
+	public final long numEdges;
+	public final long seed;
+	public boolean directed = false;
+	public double maxWeight = 2.5;
+	public double exponent = 2.1;
+
+	/** edges emitted by the last call to generate() */
+	public long emitted = 0;
+
+	private SplittableRandom rand;
+	private int weightSteps;
+
+	public GraphGenerator(Model model, int numNodes, long numEdges, long seed) {
+		if(numNodes < 2)
+			throw new IllegalArgumentException("need at least 2 nodes");
+		this.model = model;
+		this.numNodes = numNodes;
+		this.numEdges = numEdges;
+		this.seed = seed;
+	}
+
+	public void generate(EdgeSink sink) throws IOException {
+		rand = new SplittableRandom(seed);
+		weightSteps = (int)Math.round(4 * maxWeight);
+		emitted = 0;
+		switch(model) {
+		case RMAT: rmat(sink); break;
+		case BA: barabasiAlbert(sink); break;
+		case ER: erdosRenyi(sink); break;
+		case CHUNGLU: chungLu(sink); break;
+		}
+	}
+
+	private void emit(EdgeSink sink, int src, int dst) throws IOException {
+		double weight = weightSteps > 0 ? 0.25 * (1 + rand.nextInt(weightSteps)) : 1;
+		sink.edge(src, dst, weight);
+		emitted++;
+		if(!directed) {
+			sink.edge(dst, src, weight);
+			emitted++;
+		}
+	}
+
+	private void rmat(EdgeSink sink) throws IOException {
+		final double a = 0.57, b = 0.19, c = 0.19;
+		int scale = 32 - Integer.numberOfLeadingZeros(numNodes - 1);
+
+		// Fisher-Yates shuffle of the node labels
+		int[] label = new int[numNodes];
+		for(int i = 0; i < numNodes; i++) label[i] = i;
+		for(int i = numNodes - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int tmp = label[i]; label[i] = label[j]; label[j] = tmp;
+		}
+
+		// one 16-bit draw per level, four levels per random long
+		final int ta = (int)(a * 65536), tab = (int)((a + b) * 65536),
+				tabc = (int)((a + b + c) * 65536);
+		for(long e = 0; e < numEdges; ) {
+			int src = 0, dst = 0;
+			long bits = 0;
+			int level = 0;
+			for(int bit = 1 << (scale - 1); bit > 0; bit >>= 1, level++) {
+				if((level & 3) == 0) bits = rand.nextLong();
+				int r = (int)(bits & 0xffff);
+				bits >>>= 16;
+				if(r < ta) continue;
+				if(r < tab) dst |= bit;
+				else if(r < tabc) src |= bit;
+				else { src |= bit; dst |= bit; }
+			}
+			if(src >= numNodes || dst >= numNodes || src == dst) continue;
+			emit(sink, label[src], label[dst]);
+			e++;
+		}
+	}
+
+	private void barabasiAlbert(EdgeSink sink) throws IOException {
+		int k = (int)Math.max(1, Math.min(numNodes - 1, numEdges / numNodes));
+
+		// every edge endpoint so far; sampling from it is degree-proportional
+		long total = (long)k * (k + 1) / 2 + (long)(numNodes - k - 1) * k;
+		if(2 * total > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many edges for BA model");
+		int[] endpoints = new int[(int)(2 * total)];
+		int len = 0;
+
+		// start from a clique on the first k+1 nodes
+		for(int i = 1; i <= k; i++) {
+			for(int j = 0; j < i; j++) {
+				emit(sink, i, j);
+				endpoints[len++] = i;
+				endpoints[len++] = j;
+			}
+		}
+		int[] targets = new int[k];
+		for(int i = k + 1; i < numNodes; i++) {
+			for(int t = 0; t < k; t++) {
+				int target;
+				boolean repeat;
+				do {
+					target = endpoints[rand.nextInt(len)];
+					repeat = false;
+					for(int s = 0; s < t; s++)
+						if(targets[s] == target) repeat = true;
+				} while(repeat);
+				targets[t] = target;
+			}
+			for(int target : targets) {
+				emit(sink, i, target);
+				endpoints[len++] = i;
+				endpoints[len++] = target;
+			}
+		}
+	}
+
+	private void erdosRenyi(EdgeSink sink) throws IOException {
+		for(long e = 0; e < numEdges; ) {
+			int src = rand.nextInt(numNodes);
+			int dst = rand.nextInt(numNodes);
+			if(src == dst) continue;
+			emit(sink, src, dst);
+			e++;
+		}
+	}
+
+	private void chungLu(EdgeSink sink) throws IOException {
+		double[] weight = new double[numNodes];
+		for(int i = 0; i < numNodes; i++)
+			weight[i] = Math.pow(i + 1, -1.0 / (exponent - 1));
+		AliasTable table = new AliasTable(weight);
+		for(long e = 0; e < numEdges; ) {
+			int src = table.sample(rand);
+			int dst = table.sample(rand);
+			if(src == dst) continue;
+			emit(sink, src, dst);
+			e++;
+		}
+	}
+
+	/*
+	 * Walker's alias method: constant-time sampling of i with probability
+	 * proportional to weight[i].
+	 */
+	static class AliasTable {
+		final double[] prob;
+		final int[] alias;
+
+		AliasTable(double[] weight) {
+			int n = weight.length;
+			prob = new double[n];
+			alias = new int[n];
+			double total = 0;
+			for(double w : weight) total += w;
+
+			int[] small = new int[n], large = new int[n];
+			int ns = 0, nl = 0;
+			for(int i = 0; i < n; i++) {
+				prob[i] = weight[i] * n / total;
+				if(prob[i] < 1) small[ns++] = i;
+				else large[nl++] = i;
+			}
+			while(ns > 0 && nl > 0) {
+				int s = small[--ns], l = large[--nl];
+				alias[s] = l;
+				prob[l] -= 1 - prob[s];
+				if(prob[l] < 1) small[ns++] = l;
+				else large[nl++] = l;
+			}
+			while(nl > 0) prob[large[--nl]] = 1;
+			while(ns > 0) prob[small[--ns]] = 1;
+		}
+
+		int sample(SplittableRandom rand) {
+			int i = rand.nextInt(prob.length);
+			return rand.nextDouble() < prob[i] ? i : alias[i];
+		}
+	}
+
+
+	/**
+	 * Writes edges as source,target,weight lines. Numbers are formatted
+	 * straight into a byte buffer; weights that are multiples of 0.25 are
+	 * formatted once and copied from a table.
+	 */
+	public static class CsvSink implements EdgeSink, Closeable {
+		private final OutputStream out;
+		private final byte[] buf = new byte[1 << 16];
+		private final byte[][] quarters = new byte[64][];
+		private int pos = 0;
+
+		public CsvSink(OutputStream out) {
+			this.out = out;
+		}
+
+		public CsvSink(String fileName) throws IOException {
+			this(new FileOutputStream(fileName));
+		}
+
+		public void edge(int src, int dst, double weight) throws IOException {
+			int q = (int)(weight * 4);
+			byte[] w;
+			if(q == weight * 4 && q >= 0 && q < quarters.length) {
+				if(quarters[q] == null) quarters[q] = format(weight);
+				w = quarters[q];
+			}
+			else w = format(weight);
+			if(pos + 24 + w.length > buf.length) flush();
+			writeInt(src);
+			buf[pos++] = ',';
+			writeInt(dst);
+			buf[pos++] = ',';
+			System.arraycopy(w, 0, buf, pos, w.length);
+			pos += w.length;
+			buf[pos++] = '\n';
+		}
+
+		private static byte[] format(double weight) {
+			String s = Double.toString(weight);
+			if(s.endsWith(".0")) s = s.substring(0, s.length() - 2);
+			return s.getBytes();
+		}
+
+		private void writeInt(int x) {
+			if(x == 0) {
+				buf[pos++] = '0';
+				return;
+			}
+			int end = pos + 10;
+			int i = end;
+			while(x > 0) {
+				buf[--i] = (byte)('0' + x % 10);
+				x /= 10;
+			}
+			int len = end - i;
+			System.arraycopy(buf, i, buf, pos, len);
+			pos += len;
+		}
+
+		public void flush() throws IOException {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+
+		public void close() throws IOException {
+			flush();
+			out.close();
+		}
+	}
+
+	/**
+	 * Builds an AttributedGraph exactly as GraphLoader would from the
+	 * equivalent CSV file.
+	 */
+	public static class GraphSink implements EdgeSink {
+		public final AttributedGraph graph = new AttributedGraph();
+		private final String[] ids;
+
+		public GraphSink(int numNodes) {
+			ids = new String[numNodes];
+			graph.buildNodeIndex("nodeID");
+		}
+
+		public void edge(int src, int dst, double weight) {
+			if(ids[src] == null) ids[src] = Integer.toString(src);
+			if(ids[dst] == null) ids[dst] = Integer.toString(dst);
+			GraphLoader.addEdge(graph, ids[src], ids[dst], weight);
+		}
+
+		public AttributedGraph getGraph() {
+			graph.buildNodeIndex("nodeID");
+			return graph;
+		}
+	}
+
+	/**
+	 * Generates an edge file; prints the number of edges written and the
+	 * generation rate.
+	 *
+	 * @param args = model numNodes numEdges seed outputFile [directed] [maxWeight=W] [exponent=G]
+	 */
+	public static void main(String[] args) throws IOException {
+		GraphGenerator gen = null;
+		String outFile = null;
+		try {
+			gen = new GraphGenerator(Model.valueOf(args[0].toUpperCase()),
+					Integer.parseInt(args[1]), Long.parseLong(args[2]),
+					Long.parseLong(args[3]));
+			outFile = args[4];
+			for(int i = 5; i < args.length; i++) {
+				if(args[i].equals("directed")) gen.directed = true;
+				else if(args[i].startsWith("maxWeight="))
+					gen.maxWeight = Double.parseDouble(args[i].substring(10));
+				else if(args[i].startsWith("exponent="))
+					gen.exponent = Double.parseDouble(args[i].substring(9));
+				else throw new IllegalArgumentException(args[i]);
+			}
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java GraphGenerator rmat|ba|er|chunglu " +
+					"numNodes numEdges seed outputFile [directed] [maxWeight=W] [exponent=G]");
+			return;
+		}
+
+		long start = System.nanoTime();
+		CsvSink sink = new CsvSink(outFile);
+		try {
+			gen.generate(sink);
+		}
+		finally {
+			sink.close();
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d edges in %.3f s (%.0f edges/s)",
+				gen.emitted, secs, gen.emitted / secs));
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads an edge list in 3-column .csv format source,target,weight
+ * (String,String,Double) into an AttributedGraph. Each node gets its
+ * original identifier as the "nodeID" attribute and each link gets its
+ * weight as the "wgt" attribute. Weakly connected components are found
+ * while reading and registered with the graph (see ConnectedComponents).
+ */
+public class GraphLoader {
+
+	/** number of edges read by the last call to load() */
+	public long unweighted = 0;
+	/** total edge weight read by the last call to load() */
+	public long weighted = 0;
+	/** if set, reading and index building are timed as "load" and "index" */
+	public RunMetrics metrics = null;
+
+	public AttributedGraph load(String graphFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(graphFile));
+		try {
+			return load(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	public AttributedGraph load(BufferedReader reader) throws IOException {
+		String curLine, uid, vid;
+		Double weight;
+		unweighted = 0;
+		weighted = 0;
+
+		AttributedGraph graph = new AttributedGraph();
+		ConnectedComponents components = new ConnectedComponents();
+
+		if(metrics != null) metrics.begin("load");
+		graph.buildNodeIndex("nodeID");
+		while ((curLine = reader.readLine()) != null) {
+			String[] fields = curLine.split(",");
+			uid = new String(fields[0]);
+			vid = new String(fields[1]);
+			weight = Double.valueOf(fields[2]);
+			unweighted++;
+			weighted += weight;
+
+			AttributedLink link = addEdge(graph, uid, vid, weight);
+			components.union(link.src, link.dst);
+		}
+		ConnectedComponents.register(graph, components);
+		if(metrics != null) {
+			metrics.end("load");
+			metrics.begin("index");
+		}
+
+		graph.buildNodeIndex("nodeID");
+		if(metrics != null) metrics.end("index");
+		return graph;
+	}
+
+	/**
+	 * Adds a weighted link between the nodes with the given identifiers,
+	 * creating them if necessary. The graph must have a "nodeID" index.
+	 */
+	public static AttributedLink addEdge(AttributedGraph graph,
+			String uid, String vid, Double weight) {
+		AttributedNode srcNode = graph.getNode("nodeID", uid);
+		if (srcNode == null) {
+			srcNode = graph.addNode();
+			srcNode.setAttr("nodeID", uid);
+			graph.updateIndex(srcNode);
+		}
+
+		AttributedNode dstNode = graph.getNode("nodeID", vid);
+		if (dstNode == null) {
+			dstNode = graph.addNode();
+			dstNode.setAttr("nodeID", vid);
+			graph.updateIndex(dstNode);
+		}
+
+		Map<String,Object> attrs = new HashMap<String,Object>();
+		attrs.put("wgt", weight);
+
+		return graph.addLink(srcNode, dstNode, attrs);
+	}
+}
@@ -11,17 +11,24 @@
 %   symbols.
 % symBits is the cost of storing a single symbol (generally ceil(log(m)))
 % posBits is the cost of storing the position of a given value in V
+% W [optional] is a matrix of per-element multiplicities the same size as
+%   V; element i stands for W(i) identical elements
 %
 
-function c = HuffmanCost(V, symBits, posBits)
+function c = HuffmanCost(V, symBits, posBits, W)
 
 c = 0;
 V = V(:);
 n = size(V);
+if nargin < 4
+    W = ones(n);
+else
+    W = W(:);
+end
 m = max(V);
 counts = zeros(1,m);
 for i=1:n
-    counts(V(i)) = counts(V(i)) + 1;
+    counts(V(i)) = counts(V(i)) + W(i);
 end
 
 
@@ -53,7 +60,7 @@ for i=1:m
 end
 
 for i=1:n
-    c = c + costs(V(i)) + posBits;
+    c = c + W(i)*(costs(V(i)) + posBits);
 end
 
 end
@@ -0,0 +1,546 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+
+/**
+ * Keeps the features of a fixed feature set (as CalculateFeatures
+ * computes them) up to date while links are added and removed.
+ *
+ * The first full run records the iterations that produce the wanted
+ * features and freezes the vertical bins of every binned feature as
+ * BinBoundaries. A link change between u and v then only touches:
+ *
+ *   - the nodes whose level-0 or level-1 egonet contains u or v, i.e.
+ *     u, v and their neighbors, at every iteration, and
+ *   - at iteration k, the nodes within two hops of a node whose binned
+ *     input from iteration k-1 changed, since the external edge counts of
+ *     a level-1 egonet sum the attributes of its neighbors' neighbors.
+ *
+ * Those nodes are recounted on a local graph of their links and their
+ * neighbors' links, so an update costs time in proportion to the
+ * neighborhoods it reaches, and the change stops spreading as soon as
+ * no binned value moves. Because the bins are frozen, the features are
+ * the ones a full recount with the same bins would give (see verify());
+ * bins drift from what a fresh CalculateFeatures run would choose as the
+ * graph changes, so rebuild occasionally.
+ *
+ * Command line arguments:
+ *
+ * graphFile: csv format with source,destination,weight records
+ * featureFile: one line, comma-separated feature names
+ * binSize: same as GenerateFeatures.java
+ * updateFile: one change per line, "+,source,destination,weight" to add
+ *             a link or "-,source,destination[,weight]" to remove one
+ * outputFileBase: base string for output files
+ * verify: optional; recount every node at the end and report mismatches
+ */
+public class IncrementalFeatures {
+
+	protected static final int MAX_ITERATIONS = 100;
+
+	/*
+	 * One recorded iteration: its input attributes (null for the
+	 * primitives), the computed features that are kept, and the kept
+	 * features whose "wgt-" bins feed the next iteration.
+	 */
+	static class Iteration {
+		final String[] inputs;
+		final List<String> kept = new ArrayList<String>();
+		final List<String> next = new ArrayList<String>();
+		Iteration(String[] inputs) { this.inputs = inputs; }
+	}
+
+	final AttributedGraph graph;
+	final List<String> featureNames;
+	final List<Iteration> iterations = new ArrayList<Iteration>();
+	final Map<String, BinBoundaries> bins = new HashMap<String, BinBoundaries>();
+
+	/** nodes recounted by the last update, summed over iterations */
+	long lastRecounted = 0;
+
+	/**
+	 * Computes featureNames for every node of graph, which must have a
+	 * "nodeID" index (as GraphLoader builds), and freezes the bins.
+	 */
+	public IncrementalFeatures(AttributedGraph graph, List<String> featureNames,
+			double binSize) {
+		this.graph = graph;
+		this.featureNames = featureNames;
+
+		Set<String> compNameSet = new HashSet<String>(featureNames);
+		Set<String> validPostfix = new HashSet<String>();
+		for(String s : featureNames) {
+			if(s.indexOf('-') > -1)
+				validPostfix.add("wgt"+s.substring(s.indexOf('-')));
+		}
+		List<String> allReps = new ArrayList<String>();
+
+		String[] attrs = null;
+		for(int numIters = 0; numIters < MAX_ITERATIONS; numIters++) {
+			if(attrs != null && attrs.length == 0) break;
+			Iteration it = new Iteration(attrs);
+			String[] features = RankedRoleFinder.calculateAttrs(graph, null, attrs);
+
+			for(String attr : features) {
+				String ranks = RankedRoleFinder.verticalBin(graph, attr, binSize);
+				if(compNameSet.contains(attr) && !allReps.contains(attr))
+					bins.put(attr, BinBoundaries.of(graph, attr, ranks));
+				for(AttributedNode n : graph.getNodes()) {
+					n.setAttr(attr, n.getAttr(ranks));
+					n.attrs.remove(ranks);
+				}
+			}
+
+			for(String attr : features) {
+				if(compNameSet.contains(attr) && !allReps.contains(attr))
+					it.kept.add(attr);
+				else if(!allReps.contains(attr))
+					for(AttributedNode n : graph.getNodes())
+						n.attrs.remove(attr);
+			}
+
+			List<String> postfix = new ArrayList<String>();
+			for(String rep : it.kept) {
+				allReps.add(rep);
+				String post = RankedRoleFinder.verticalBin(graph, rep, binSize);
+				// the primitives all feed the next iteration
+				if(attrs == null || validPostfix.contains(post)) {
+					bins.put(post, BinBoundaries.of(graph, rep, post));
+					it.next.add(rep);
+					postfix.add(post);
+				}
+				else {
+					for(AttributedNode n : graph.getNodes())
+						n.attrs.remove(post);
+				}
+			}
+			iterations.add(it);
+			attrs = postfix.toArray(new String[postfix.size()]);
+		}
+	}
+
+	/*
+	 * An engine for a plan read by load(): the iterations and bins of an
+	 * earlier full run, with no features computed yet.
+	 */
+	private IncrementalFeatures(AttributedGraph graph, List<String> featureNames) {
+		this.graph = graph;
+		this.featureNames = featureNames;
+	}
+
+	/**
+	 * Writes the feature names, recorded iterations and frozen bins, so
+	 * that load() can compute the same features later without a full
+	 * run. One record per line:
+	 *
+	 *   features,name...
+	 *   iteration[,input...]    (no inputs for the primitives)
+	 *   kept,name...
+	 *   next,name...
+	 *   bins,name,low...        (see BinBoundaries)
+	 */
+	public void save(String planFile) throws IOException {
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(planFile)));
+		out.println(join("features", featureNames));
+		for(Iteration it : iterations) {
+			out.println(join("iteration", it.inputs == null ? new ArrayList<String>()
+					: Arrays.asList(it.inputs)));
+			out.println(join("kept", it.kept));
+			out.println(join("next", it.next));
+		}
+		for(Map.Entry<String, BinBoundaries> e : new TreeMap<String, BinBoundaries>(bins).entrySet()) {
+			StringBuilder sb = new StringBuilder("bins,").append(e.getKey());
+			for(double low : e.getValue().lows())
+				sb.append(',').append(low);
+			out.println(sb);
+		}
+		out.close();
+	}
+
+	private static String join(String tag, List<String> names) {
+		StringBuilder sb = new StringBuilder(tag);
+		for(String name : names)
+			sb.append(',').append(name);
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a plan written by save() for graph, which must have a
+	 * "nodeID" index. No features are computed; use computeFor().
+	 */
+	public static IncrementalFeatures load(AttributedGraph graph, String planFile)
+			throws IOException {
+		IncrementalFeatures ret = new IncrementalFeatures(graph, new ArrayList<String>());
+		BufferedReader reader = new BufferedReader(new FileReader(planFile));
+		Iteration it = null;
+		String curLine;
+		while((curLine = reader.readLine()) != null) {
+			String[] fields = curLine.split(",");
+			List<String> names = Arrays.asList(fields).subList(1, fields.length);
+			if(fields[0].equals("features")) {
+				ret.featureNames.addAll(names);
+			}
+			else if(fields[0].equals("iteration")) {
+				it = new Iteration(names.isEmpty() ? null : names.toArray(new String[names.size()]));
+				ret.iterations.add(it);
+			}
+			else if(fields[0].equals("kept") && it != null) {
+				it.kept.addAll(names);
+			}
+			else if(fields[0].equals("next") && it != null) {
+				it.next.addAll(names);
+			}
+			else if(fields[0].equals("bins") && fields.length > 1) {
+				double[] lows = new double[fields.length - 2];
+				for(int i = 0; i < lows.length; i++)
+					lows[i] = Double.parseDouble(fields[i + 2]);
+				ret.bins.put(fields[1], new BinBoundaries(lows));
+			}
+			else {
+				reader.close();
+				throw new IOException("bad line in " + planFile + ": " + curLine);
+			}
+		}
+		reader.close();
+		return ret;
+	}
+
+	/**
+	 * Computes the features of the targets alone. Iteration k of L is
+	 * counted for the nodes within 2(L-1-k) hops of a target: a level-1
+	 * egonet's external edges read the previous iteration's bins two hops
+	 * out. The cost depends on the targets' neighborhoods, not on the
+	 * size of the graph. Other nodes in those neighborhoods are left with
+	 * partial features.
+	 *
+	 * @return the number of node counts, summed over iterations
+	 */
+	public long computeFor(Collection<AttributedNode> targets) {
+		long counted = 0;
+		int numIters = iterations.size();
+		Set<AttributedNode> dirty = new HashSet<AttributedNode>(targets);
+		List<Set<AttributedNode>> levels = new ArrayList<Set<AttributedNode>>();
+		for(int k = numIters - 1; k >= 0; k--) {
+			levels.add(0, dirty);
+			if(k > 0) dirty = ball(dirty, 2);
+		}
+		for(int k = 0; k < numIters; k++) {
+			counted += levels.get(k).size();
+			store(iterations.get(k), recount(levels.get(k), iterations.get(k).inputs));
+		}
+		return counted;
+	}
+
+	/**
+	 * Adds a link and updates the features it affects.
+	 */
+	public void addLink(String uid, String vid, double weight) {
+		refresh(add(uid, vid, weight));
+	}
+
+	/**
+	 * Removes one link from uid to vid, if there is one, and updates the
+	 * features it affected. Returns whether a link was removed.
+	 */
+	public boolean removeLink(String uid, String vid) {
+		return removeLink(uid, vid, null);
+	}
+
+	/**
+	 * As removeLink(uid, vid), but only removes a link with this weight.
+	 */
+	public boolean removeLink(String uid, String vid, Double weight) {
+		Set<AttributedNode> affected = remove(uid, vid, weight);
+		if(affected == null) return false;
+		refresh(affected);
+		return true;
+	}
+
+	/**
+	 * Applies a batch of changes, each {"+", source, destination, weight}
+	 * or {"-", source, destination[, weight]}, and then updates the
+	 * features once for all of them. Returns the number of changes that
+	 * could not be applied (unknown operations, or removals of links
+	 * that do not exist).
+	 */
+	public int apply(List<String[]> changes) {
+		Set<AttributedNode> affected = new HashSet<AttributedNode>();
+		int failed = 0;
+		for(String[] change : changes) {
+			Set<AttributedNode> a = null;
+			if(change[0].equals("+"))
+				a = add(change[1], change[2], Double.parseDouble(change[3]));
+			else if(change[0].equals("-"))
+				a = remove(change[1], change[2],
+						change.length > 3 ? Double.valueOf(change[3]) : null);
+			if(a == null) failed++;
+			else affected.addAll(a);
+		}
+		refresh(affected);
+		return failed;
+	}
+
+	/*
+	 * Adds a link and returns the nodes it affects.
+	 */
+	private Set<AttributedNode> add(String uid, String vid, double weight) {
+		AttributedLink link = GraphLoader.addEdge(graph, uid, vid, weight);
+		return neighborhood(link.src, link.dst);
+	}
+
+	private Set<AttributedNode> remove(String uid, String vid, Double weight) {
+		return unlink(graph, uid, vid, weight);
+	}
+
+	/*
+	 * Removes a link from graph and returns the nodes it affected, or null
+	 * if there was no such link. A null weight matches any link.
+	 */
+	static Set<AttributedNode> unlink(AttributedGraph graph, String uid, String vid,
+			Double weight) {
+		AttributedNode src = graph.getNode("nodeID", uid);
+		AttributedNode dst = graph.getNode("nodeID", vid);
+		if(src == null || dst == null) return null;
+		AttributedLink link = null;
+		for(AttributedLink l : src.getOutLinks()) {
+			if(l.dst == dst && (weight == null || weight.equals(l.attrs.get("wgt")))) {
+				link = l;
+				break;
+			}
+		}
+		if(link == null) return null;
+
+		// the affected nodes are found while the link still exists
+		Set<AttributedNode> affected = neighborhood(src, dst);
+		graph.removeLink(link);
+		for(AttributedNode node : new AttributedNode[]{src, dst})
+			if(node.numAdjacentLinks() == 0)
+				graph.removeFromIndex(node);
+		return affected;
+	}
+
+	/*
+	 * u, v and their neighbors: the nodes whose level-0 or level-1
+	 * egonet contains u or v
+	 */
+	private static Set<AttributedNode> neighborhood(AttributedNode u, AttributedNode v) {
+		Set<AttributedNode> ret = new HashSet<AttributedNode>();
+		for(AttributedNode x : new AttributedNode[]{u, v}) {
+			ret.add(x);
+			ret.addAll(x.getUniqueNeighbors());
+		}
+		return ret;
+	}
+
+	/*
+	 * nodes within radius hops of any of the given nodes
+	 */
+	private static Set<AttributedNode> ball(Set<AttributedNode> centers, int radius) {
+		Set<AttributedNode> ret = new HashSet<AttributedNode>(centers);
+		Set<AttributedNode> frontier = centers;
+		for(int r = 0; r < radius; r++) {
+			Set<AttributedNode> next = new HashSet<AttributedNode>();
+			for(AttributedNode x : frontier)
+				for(AttributedNode y : x.getUniqueNeighbors())
+					if(ret.add(y)) next.add(y);
+			frontier = next;
+		}
+		return ret;
+	}
+
+	/*
+	 * Recounts the structurally affected nodes at every iteration, plus
+	 * the nodes near changed inputs, and rebins with the frozen bins.
+	 */
+	void refresh(Set<AttributedNode> structural) {
+		lastRecounted = 0;
+		Set<AttributedNode> changed = new HashSet<AttributedNode>();
+		for(Iteration it : iterations) {
+			Set<AttributedNode> dirty = new HashSet<AttributedNode>();
+			for(AttributedNode x : structural)
+				if(x.numAdjacentLinks() > 0) dirty.add(x);
+			if(!changed.isEmpty())
+				dirty.addAll(ball(changed, 2));
+			lastRecounted += dirty.size();
+
+			changed = store(it, recount(dirty, it.inputs));
+		}
+	}
+
+	/*
+	 * Bins the recounted values of an iteration into the original nodes
+	 * and returns the nodes whose input to the next iteration changed.
+	 */
+	private Set<AttributedNode> store(Iteration it,
+			Map<AttributedNode, AttributedNode> local) {
+		Set<AttributedNode> changed = new HashSet<AttributedNode>();
+		for(Map.Entry<AttributedNode, AttributedNode> e : local.entrySet()) {
+			AttributedNode node = e.getKey(), copy = e.getValue();
+			for(String rep : it.kept)
+				node.setAttr(rep, bins.get(rep).bin((Double)copy.getAttr(rep)));
+			for(String rep : it.next) {
+				String post = "wgt-" + rep;
+				double value = bins.get(post).bin((Double)node.getAttr(rep));
+				Object old = node.getAttr(post);
+				if(old == null || (Double)old != value) {
+					node.setAttr(post, value);
+					changed.add(node);
+				}
+			}
+		}
+		return changed;
+	}
+
+	/*
+	 * Counts the features of an iteration for the dirty nodes on a graph
+	 * holding their links and their neighbors' links (enough for level-1
+	 * egonets and their external edges). Returns each dirty node's copy in
+	 * that graph, which carries the raw values.
+	 */
+	private Map<AttributedNode, AttributedNode> recount(Set<AttributedNode> dirty,
+			String[] inputs) {
+		Map<AttributedNode, AttributedNode> ret = new HashMap<AttributedNode, AttributedNode>();
+		if(dirty.isEmpty()) return ret;
+
+		AttributedGraph sub = new AttributedGraph();
+		Map<Long, AttributedNode> originals = new HashMap<Long, AttributedNode>();
+		Set<AttributedLink> seen = new HashSet<AttributedLink>();
+		for(AttributedNode x : ball(dirty, 1)) {
+			for(AttributedLink link : x.getLinks()) {
+				if(seen.add(link)) {
+					sub.addLink(link.src.id, link.dst.id, link.attrs);
+					originals.put(link.src.id, link.src);
+					originals.put(link.dst.id, link.dst);
+				}
+			}
+		}
+
+		List<AttributedNode> own = new ArrayList<AttributedNode>();
+		for(AttributedNode copy : sub.getNodes()) {
+			AttributedNode node = originals.get(copy.id);
+			if(inputs != null)
+				for(String attr : inputs)
+					copy.setAttr(attr, node.getAttr(attr));
+			if(dirty.contains(node)) {
+				own.add(copy);
+				ret.put(node, copy);
+			}
+		}
+		RankedRoleFinder.calculateAttrs(sub, own, inputs);
+		return ret;
+	}
+
+	/**
+	 * Recounts every node with the frozen bins and returns the number of
+	 * feature values that differ from the maintained ones.
+	 */
+	public int verify() {
+		Map<AttributedNode, double[]> before = new HashMap<AttributedNode, double[]>();
+		for(AttributedNode node : graph.getNodes()) {
+			double[] values = new double[featureNames.size()];
+			for(int f = 0; f < values.length; f++)
+				values[f] = (Double)node.getAttr(featureNames.get(f));
+			before.put(node, values);
+		}
+		refresh(new HashSet<AttributedNode>(graph.getNodes()));
+		int mismatches = 0;
+		for(AttributedNode node : graph.getNodes()) {
+			double[] values = before.get(node);
+			for(int f = 0; f < values.length; f++)
+				if(values[f] != (Double)node.getAttr(featureNames.get(f)))
+					mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @param args =
+	 * 	graphFileName : name of u,v,w .csv file containing edgelist
+	 *  featureFileName : name of .csv file with one line containing feature
+	 *  	names to keep
+	 *  binSize : size of vertical logarithmic bins (usually 0.5)
+	 *  updateFileName : link additions and removals to apply in order
+	 *  baseOutputFileName : base filename for feature values.
+	 *  verify : (optional) recount everything at the end and compare
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws IOException, ParseException {
+		String graphFile = null, featFile = null, updateFile = null, baseOut = null;
+		double binSize = -1;
+		boolean verify = false;
+		try {
+			graphFile = args[0];
+			featFile = args[1];
+			binSize = Double.parseDouble(args[2]);
+			updateFile = args[3];
+			baseOut = args[4];
+			if(args.length > 5) {
+				if(!args[5].equals("verify")) throw new IllegalArgumentException();
+				verify = true;
+			}
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java IncrementalFeatures " +
+			"graphFile featureFile binSize updateFile outputFileBase [verify]");
+			return;
+		}
+
+		List<String> featureNames = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(featFile));
+		for(String rep : reader.readLine().split(","))
+			featureNames.add(rep);
+		reader.close();
+
+		AttributedGraph graph = new GraphLoader().load(graphFile);
+		long start = System.currentTimeMillis();
+		IncrementalFeatures engine = new IncrementalFeatures(graph, featureNames, binSize);
+		System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+				+ ": full run " + (System.currentTimeMillis() - start) + " ms, "
+				+ engine.iterations.size() + " iterations");
+
+		start = System.currentTimeMillis();
+		long updates = 0, recounted = 0;
+		reader = new BufferedReader(new FileReader(updateFile));
+		String line;
+		while((line = reader.readLine()) != null) {
+			String[] fields = line.split(",");
+			if(fields[0].equals("+"))
+				engine.addLink(fields[1], fields[2], Double.parseDouble(fields[3]));
+			else if(fields[0].equals("-")) {
+				if(!engine.removeLink(fields[1], fields[2],
+						fields.length > 3 ? Double.valueOf(fields[3]) : null))
+					System.err.println("no link to remove: " + line);
+			}
+			else {
+				System.err.println("bad update: " + line);
+				continue;
+			}
+			updates++;
+			recounted += engine.lastRecounted;
+		}
+		reader.close();
+		System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+				+ ": " + updates + " updates " + (System.currentTimeMillis() - start)
+				+ " ms, " + (updates > 0 ? recounted / updates : 0)
+				+ " node recounts per update (graph has " + graph.getNumNodes() + " nodes)");
+
+		if(verify) {
+			int mismatches = engine.verify();
+			System.out.println("Verify: " + mismatches + " mismatched values");
+		}
+
+		String outFile = baseOut + "-featureValues.csv";
+		System.out.println("Feature Values: writing " + outFile);
+		FeatureMatrix.fromGraph(graph, featureNames).write(outFile);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+/**
+ * A column of doubles, one per node, kept in a memory-mapped file so
+ * that feature values live in the page cache rather than on the heap.
+ * Files are mapped in chunks of 2^27 values (1 GB), so columns may hold
+ * more values than a single mapping allows.
+ */
+public class MappedColumn {
+
+	private static final int CHUNK_BITS = 27;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	public final File file;
+	public final long length;
+	private final DoubleBuffer[] chunks;
+
+	/**
+	 * Maps file, creating or resizing it to hold length values. New
+	 * files read as zeros.
+	 */
+	public MappedColumn(File file, long length) throws IOException {
+		this.file = file;
+		this.length = length;
+		int numChunks = (int)((length + CHUNK_MASK) >>> CHUNK_BITS);
+		chunks = new DoubleBuffer[numChunks];
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(8 * length);
+			FileChannel channel = raf.getChannel();
+			for(int c = 0; c < numChunks; c++) {
+				long start = (long)c << CHUNK_BITS;
+				long size = Math.min(length - start, 1L << CHUNK_BITS);
+				chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, 8 * start, 8 * size)
+					.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		}
+		finally {
+			// the mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	public double get(long i) {
+		return chunks[(int)(i >>> CHUNK_BITS)].get((int)(i & CHUNK_MASK));
+	}
+
+	public void set(long i, double value) {
+		chunks[(int)(i >>> CHUNK_BITS)].put((int)(i & CHUNK_MASK), value);
+	}
+
+	/** Copies the whole column onto the heap, e.g. for binning. */
+	public double[] toArray() {
+		double[] ret = new double[(int)length];
+		for(int i = 0; i < ret.length; i++) ret[i] = get(i);
+		return ret;
+	}
+
+	public void copyFrom(double[] values) {
+		for(int i = 0; i < values.length; i++) set(i, values[i]);
+	}
+
+	/**
+	 * Deletes the file. The mapping is released when the column is
+	 * garbage collected.
+	 */
+	public void delete() {
+		file.delete();
+	}
+}
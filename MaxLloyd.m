@@ -11,11 +11,18 @@
 % L is the number of quanta.
 % thresh is the threshold for iteration. When the difference in error terms
 %  between two steps is below thresh, the algorithm exits.
+% W [optional] is a matrix of per-element weights (multiplicities) the
+%  same size as A. Quanta are weighted means of their members.
 %
 
-function [Q, M] = MaxLloyd(A, L, thresh)
+function [Q, M] = MaxLloyd(A, L, thresh, W)
 
 flat = A(:);
+if nargin < 4
+    wts = ones(size(flat));
+else
+    wts = W(:);
+end
 Q = zeros(size(flat));
 M = zeros(size(flat));
 
@@ -31,7 +38,7 @@ for i=1:L
     Y(i) = (i-1)*(mx-mn)/L;
 end   
 
-oldErr = sum(flat.*flat);
+oldErr = sum(wts.*flat.*flat);
 
 while 1
     ySize = zeros(1,L);
@@ -47,13 +54,13 @@ while 1
             end
         end
         M(i) = bestJ;
-        ySize(bestJ) = ySize(bestJ) + 1;
-        newY(bestJ) = newY(bestJ) + flat(i);
+        ySize(bestJ) = ySize(bestJ) + wts(i);
+        newY(bestJ) = newY(bestJ) + wts(i)*flat(i);
         
         
     end
     for i=1:L
-        Y(i) = newY(i)/max(ySize(i),1);
+        Y(i) = newY(i)/max(ySize(i),min(wts));
     end
     for i=1:n
         Q(i) = Y(M(i));
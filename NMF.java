@@ -0,0 +1,423 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+/**
+ * Non-negative matrix factorization V ~ G*F' on dense column-major
+ * arrays. V is n x d (nodes x features), G is n x r and F is d x r.
+ * This is the Java counterpart of NMF_LS_new.m (multiplicative
+ * updates), NMF_HALS.m, NMF_LS_FixedF.m and NNDSVD.m, so RolX can run
+ * in the same JVM as ReFeX.
+ *
+ * All matrices are double[] with element (i,j) of an m x k matrix at
+ * [i + j*m].
+ */
+public class NMF {
+	public static final int MAX_ITERATIONS = 1000;
+	public static final double ERR_EPS = 1e-5;
+	public static final double EPSILON = 1e-27;
+
+	/**
+	 * NMF solvers. MU is Lee and Seung's multiplicative update rule,
+	 * HALS is hierarchical alternating least squares.
+	 */
+	public enum Algorithm { MU, HALS }
+
+	/**
+	 * Factorizes V starting from G and F, which are updated in place.
+	 * As in NMF_LS_new.m, degenerate role counts (r >= d or r >= n)
+	 * are solved exactly.
+	 *
+	 * @return the Frobenius norm of V - G*F'
+	 */
+	public static double factorize(Algorithm alg, double[] V, int n, int d,
+			double[] G, double[] F, int r, int niter) {
+		if(r >= d) {
+			System.arraycopy(V, 0, G, 0, n*d);
+			Arrays.fill(G, n*d, n*r, 0.0);
+			Arrays.fill(F, 0.0);
+			for(int j = 0; j < d; j++) F[j + j*d] = 1.0;
+			return 0.0;
+		}
+		if(r >= n) {
+			Arrays.fill(G, 0.0);
+			for(int i = 0; i < n; i++) G[i + i*n] = 1.0;
+			Arrays.fill(F, 0.0);
+			for(int i = 0; i < n; i++)
+				for(int j = 0; j < d; j++)
+					F[j + i*d] = V[i + j*n];
+			return 0.0;
+		}
+		if(alg == Algorithm.HALS)
+			return hals(V, n, d, G, F, r, niter);
+		return multiplicative(V, n, d, G, F, r, niter);
+	}
+
+	/**
+	 * Lee and Seung's multiplicative updates, as in NMF_LS_new.m.
+	 * Stops when the squared change in G and F drops below ERR_EPS.
+	 */
+	static double multiplicative(double[] V, int n, int d,
+			double[] G, double[] F, int r, int niter) {
+		for(int it = 0; it < niter; it++) {
+			double[] VF = mult(V, n, d, F, r);
+			double[] GFtF = mult(G, n, r, gram(F, d, r), r);
+			double gLoss = 0;
+			for(int x = 0; x < n*r; x++) {
+				double g = G[x] * (VF[x] / (GFtF[x] + EPSILON));
+				gLoss += (g - G[x]) * (g - G[x]);
+				G[x] = g;
+			}
+
+			double[] VtG = multTransA(V, n, d, G, r);
+			double[] FGtG = mult(F, d, r, gram(G, n, r), r);
+			double fLoss = 0;
+			for(int x = 0; x < d*r; x++) {
+				double f = F[x] * (VtG[x] / (FGtG[x] + EPSILON));
+				fLoss += (f - F[x]) * (f - F[x]);
+				F[x] = f;
+			}
+
+			if(Math.abs(gLoss + fLoss) < ERR_EPS) break;
+		}
+		return Math.sqrt(loss(V, n, d, G, F, r));
+	}
+
+	/**
+	 * Hierarchical alternating least squares, as in NMF_HALS.m. The loss
+	 * is computed from Gram matrices,
+	 *   ||V||^2 - 2*tr(F'*V'*G) + tr((F'*F)*(G'*G)),
+	 * and iteration stops when its relative change drops below ERR_EPS.
+	 */
+	static double hals(double[] V, int n, int d,
+			double[] G, double[] F, int r, int niter) {
+		double normV = 0;
+		for(double v : V) normV += v*v;
+		double oldLoss = normV, sqLoss = normV;
+
+		for(int it = 0; it < niter; it++) {
+			updateColumns(G, n, r, mult(V, n, d, F, r), gram(F, d, r));
+
+			double[] VtG = multTransA(V, n, d, G, r);
+			double[] GtG = gram(G, n, r);
+			updateColumns(F, d, r, VtG, GtG);
+
+			double[] FtF = gram(F, d, r);
+			double cross = 0, model = 0;
+			for(int x = 0; x < d*r; x++) cross += F[x] * VtG[x];
+			for(int x = 0; x < r*r; x++) model += FtF[x] * GtG[x];
+			sqLoss = normV - 2*cross + model;
+			if(Math.abs(oldLoss - sqLoss) < ERR_EPS * Math.max(normV, 1)) break;
+			oldLoss = sqLoss;
+		}
+		return Math.sqrt(Math.max(sqLoss, 0));
+	}
+
+	/*
+	 * One HALS sweep over the columns of A (m x r), given the products
+	 * B = V*W (or V'*W) and the Gram matrix WtW of the other factor.
+	 */
+	private static void updateColumns(double[] A, int m, int r,
+			double[] B, double[] WtW) {
+		for(int k = 0; k < r; k++) {
+			double diag = Math.max(WtW[k + k*r], EPSILON);
+			for(int i = 0; i < m; i++) {
+				double s = 0;
+				for(int j = 0; j < r; j++) s += A[i + j*m] * WtW[j + k*r];
+				A[i + k*m] = Math.max(EPSILON, A[i + k*m] + (B[i + k*m] - s) / diag);
+			}
+		}
+	}
+
+	/**
+	 * Solves for G with F held fixed, as in NMF_LS_FixedF.m. Rows of G
+	 * are independent, so callers may split the rows of V across
+	 * threads.
+	 *
+	 * @param F (feature x role) matrix
+	 * @param G (node x role) starting point, updated in place
+	 */
+	public static void solveFixedF(double[] V, int n, int d,
+			double[] F, int r, double[] G, int niter) {
+		double[] VF = mult(V, n, d, F, r);
+		double[] FtF = gram(F, d, r);
+		for(int it = 0; it < niter; it++) {
+			double[] GFtF = mult(G, n, r, FtF, r);
+			double gLoss = 0;
+			for(int x = 0; x < n*r; x++) {
+				double g = G[x] * (VF[x] / (GFtF[x] + EPSILON));
+				gLoss += (g - G[x]) * (g - G[x]);
+				G[x] = g;
+			}
+			if(Math.abs(gLoss) < ERR_EPS) break;
+		}
+	}
+
+	/**
+	 * Squared Frobenius norm of V - G*F'.
+	 */
+	public static double loss(double[] V, int n, int d,
+			double[] G, double[] F, int r) {
+		double loss = 0;
+		double[] row = new double[r];
+		for(int i = 0; i < n; i++) {
+			for(int k = 0; k < r; k++) row[k] = G[i + k*n];
+			for(int j = 0; j < d; j++) {
+				double e = V[i + j*n];
+				for(int k = 0; k < r; k++) e -= row[k] * F[j + k*d];
+				loss += e*e;
+			}
+		}
+		return loss;
+	}
+
+	/**
+	 * Deterministic NNDSVDa starting point (see NNDSVD.m), built on a
+	 * randomized truncated SVD of V. Column k of G0 and F0 only depends
+	 * on singular triplet k, so the first k columns are the starting
+	 * point for k roles.
+	 *
+	 * @param G0 (n x r) output
+	 * @param F0 (d x r) output
+	 */
+	public static void nndsvd(double[] V, int n, int d, int r,
+			double[] G0, double[] F0) {
+		double[][] usw = randomizedSVD(V, n, d, r, 10, 2);
+		double[] U = usw[0], S = usw[1], W = usw[2];
+		r = S.length;
+
+		// The leading triplet is all one sign; use its magnitude.
+		double s0 = Math.sqrt(S[0]);
+		for(int i = 0; i < n; i++) G0[i] = s0 * Math.abs(U[i]);
+		for(int j = 0; j < d; j++) F0[j] = s0 * Math.abs(W[j]);
+
+		// Later triplets contribute their dominant non-negative part.
+		double[] xp = new double[n], xn = new double[n];
+		double[] yp = new double[d], yn = new double[d];
+		for(int k = 1; k < r; k++) {
+			double nxp = 0, nxn = 0, nyp = 0, nyn = 0;
+			for(int i = 0; i < n; i++) {
+				double x = U[i + k*n];
+				xp[i] = Math.max(x, 0);
+				xn[i] = Math.max(-x, 0);
+				nxp += xp[i]*xp[i];
+				nxn += xn[i]*xn[i];
+			}
+			for(int j = 0; j < d; j++) {
+				double y = W[j + k*d];
+				yp[j] = Math.max(y, 0);
+				yn[j] = Math.max(-y, 0);
+				nyp += yp[j]*yp[j];
+				nyn += yn[j]*yn[j];
+			}
+			nxp = Math.sqrt(nxp); nxn = Math.sqrt(nxn);
+			nyp = Math.sqrt(nyp); nyn = Math.sqrt(nyn);
+
+			double[] u = xp, v = yp;
+			double nu = nxp, nv = nyp, sigma = nxp*nyp;
+			if(nxn*nyn > sigma) {
+				u = xn; v = yn;
+				nu = nxn; nv = nyn; sigma = nxn*nyn;
+			}
+
+			double scale = Math.sqrt(S[k] * sigma);
+			for(int i = 0; i < n; i++)
+				G0[i + k*n] = scale * u[i] / Math.max(nu, 1e-20);
+			for(int j = 0; j < d; j++)
+				F0[j + k*d] = scale * v[j] / Math.max(nv, 1e-20);
+		}
+
+		double avg = 0;
+		for(double x : V) avg += x;
+		avg /= (double)n*d;
+		for(int x = 0; x < n*r; x++) if(G0[x] < 1e-12) G0[x] = avg;
+		for(int x = 0; x < d*r; x++) if(F0[x] < 1e-12) F0[x] = avg;
+	}
+
+	/**
+	 * Truncated SVD by randomized range finding (see RandSVD.m). The
+	 * test matrix comes from a fixed-seed generator, so the result is
+	 * reproducible.
+	 *
+	 * @return {U (n x k), singular values (k), W (d x k)}
+	 */
+	public static double[][] randomizedSVD(double[] V, int n, int d, int k,
+			int oversample, int powerIters) {
+		k = Math.min(k, Math.min(n, d));
+		int l = Math.min(k + oversample, Math.min(n, d));
+
+		Random rand = new Random(0);
+		double[] omega = new double[d*l];
+		for(int x = 0; x < omega.length; x++) omega[x] = rand.nextGaussian();
+
+		double[] Q = mult(V, n, d, omega, l);
+		orthonormalize(Q, n, l);
+		for(int p = 0; p < powerIters; p++) {
+			double[] Z = multTransA(V, n, d, Q, l);
+			orthonormalize(Z, d, l);
+			Q = mult(V, n, d, Z, l);
+			orthonormalize(Q, n, l);
+		}
+
+		// B = Q'*V is small (l x d); get its SVD from the eigenvectors of B*B'.
+		double[] Bt = multTransA(V, n, d, Q, l);	// d x l, B transposed
+		double[] BBt = gram(Bt, d, l);
+		double[] evals = new double[l];
+		double[] evecs = symmetricEigen(BBt, l, evals);
+
+		Integer[] order = new Integer[l];
+		for(int x = 0; x < l; x++) order[x] = x;
+		final double[] ev = evals;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(ev[b], ev[a]);
+			}
+		});
+
+		double[] U = new double[n*k], S = new double[k], W = new double[d*k];
+		double[] ub = new double[l];
+		for(int c = 0; c < k; c++) {
+			int e = order[c];
+			S[c] = Math.sqrt(Math.max(evals[e], 0));
+			for(int x = 0; x < l; x++) ub[x] = evecs[x + e*l];
+			for(int i = 0; i < n; i++) {
+				double s = 0;
+				for(int x = 0; x < l; x++) s += Q[i + x*n] * ub[x];
+				U[i + c*n] = s;
+			}
+			if(S[c] > 1e-12) {
+				for(int j = 0; j < d; j++) {
+					double s = 0;
+					for(int x = 0; x < l; x++) s += Bt[j + x*d] * ub[x];
+					W[j + c*d] = s / S[c];
+				}
+			}
+		}
+		return new double[][]{U, S, W};
+	}
+
+	/*
+	 * Eigen-decomposition of a small symmetric matrix by cyclic Jacobi
+	 * rotations. Returns the eigenvectors as columns; eigenvalues go in
+	 * evals. A is not modified.
+	 */
+	static double[] symmetricEigen(double[] A, int m, double[] evals) {
+		double[] a = A.clone();
+		double[] v = new double[m*m];
+		for(int i = 0; i < m; i++) v[i + i*m] = 1.0;
+
+		for(int sweep = 0; sweep < 100; sweep++) {
+			double off = 0, norm = 0;
+			for(int i = 0; i < m; i++)
+				for(int j = 0; j < m; j++) {
+					norm += a[i + j*m]*a[i + j*m];
+					if(i != j) off += a[i + j*m]*a[i + j*m];
+				}
+			if(off <= 1e-24 * Math.max(norm, 1e-300)) break;
+
+			for(int p = 0; p < m-1; p++) {
+				for(int q = p+1; q < m; q++) {
+					double apq = a[p + q*m];
+					if(Math.abs(apq) < 1e-300) continue;
+					double theta = (a[q + q*m] - a[p + p*m]) / (2*apq);
+					double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta*theta + 1));
+					if(theta == 0) t = 1;
+					double c = 1 / Math.sqrt(t*t + 1), s = t*c;
+					for(int x = 0; x < m; x++) {
+						double axp = a[x + p*m], axq = a[x + q*m];
+						a[x + p*m] = c*axp - s*axq;
+						a[x + q*m] = s*axp + c*axq;
+					}
+					for(int x = 0; x < m; x++) {
+						double apx = a[p + x*m], aqx = a[q + x*m];
+						a[p + x*m] = c*apx - s*aqx;
+						a[q + x*m] = s*apx + c*aqx;
+					}
+					for(int x = 0; x < m; x++) {
+						double vxp = v[x + p*m], vxq = v[x + q*m];
+						v[x + p*m] = c*vxp - s*vxq;
+						v[x + q*m] = s*vxp + c*vxq;
+					}
+				}
+			}
+		}
+		for(int i = 0; i < m; i++) evals[i] = a[i + i*m];
+		return v;
+	}
+
+	/*
+	 * Modified Gram-Schmidt (applied twice) on the columns of A (m x k).
+	 * Columns that are numerically dependent on earlier ones are zeroed.
+	 */
+	static void orthonormalize(double[] A, int m, int k) {
+		for(int c = 0; c < k; c++) {
+			double before = 0;
+			for(int i = 0; i < m; i++) before += A[i + c*m]*A[i + c*m];
+			for(int pass = 0; pass < 2; pass++) {
+				for(int p = 0; p < c; p++) {
+					double dot = 0;
+					for(int i = 0; i < m; i++) dot += A[i + p*m]*A[i + c*m];
+					for(int i = 0; i < m; i++) A[i + c*m] -= dot*A[i + p*m];
+				}
+			}
+			double norm = 0;
+			for(int i = 0; i < m; i++) norm += A[i + c*m]*A[i + c*m];
+			norm = Math.sqrt(norm);
+			double scale = norm > 1e-10 * Math.sqrt(before) && norm > 0 ? 1/norm : 0;
+			for(int i = 0; i < m; i++) A[i + c*m] *= scale;
+		}
+	}
+
+	/**
+	 * A*B for A (m x k) and B (k x p).
+	 */
+	public static double[] mult(double[] A, int m, int k, double[] B, int p) {
+		double[] C = new double[m*p];
+		for(int j = 0; j < p; j++) {
+			for(int x = 0; x < k; x++) {
+				double b = B[x + j*k];
+				if(b == 0) continue;
+				int a0 = x*m, c0 = j*m;
+				for(int i = 0; i < m; i++) C[c0 + i] += A[a0 + i] * b;
+			}
+		}
+		return C;
+	}
+
+	/**
+	 * A'*B for A (m x k) and B (m x p).
+	 */
+	public static double[] multTransA(double[] A, int m, int k, double[] B, int p) {
+		double[] C = new double[k*p];
+		for(int j = 0; j < p; j++) {
+			for(int x = 0; x < k; x++) {
+				double s = 0;
+				int a0 = x*m, b0 = j*m;
+				for(int i = 0; i < m; i++) s += A[a0 + i] * B[b0 + i];
+				C[x + j*k] = s;
+			}
+		}
+		return C;
+	}
+
+	/**
+	 * A'*A for A (m x k).
+	 */
+	public static double[] gram(double[] A, int m, int k) {
+		double[] C = new double[k*k];
+		for(int j = 0; j < k; j++) {
+			for(int x = 0; x <= j; x++) {
+				double s = 0;
+				int a0 = x*m, b0 = j*m;
+				for(int i = 0; i < m; i++) s += A[a0 + i] * A[b0 + i];
+				C[x + j*k] = s;
+				C[j + x*k] = s;
+			}
+		}
+		return C;
+	}
+}
@@ -0,0 +1,125 @@
+%
+% Version: 1.0
+% Author: Keith Henderson
+% Contact: keith@llnl.gov
+%
+
+function [F,G,c1,loss_all] = NMF_HALS(V,niter,r,F0,G0)
+%--------------------------------------------------------------------------
+%  Hierarchical alternating least squares (HALS) for NMF. Each column of
+%  G and F is updated in closed form while the others are held fixed, so
+%  the reconstruction error drops much faster per iteration than with
+%  the multiplicative updates in NMF_LS_new. Only square loss is
+%  supported.
+%
+%  The loss is computed from the Gram matrices,
+%    ||V - G*F'||^2 = ||V||^2 - 2*tr(F'*V'*G) + tr((F'*F)*(G'*G)),
+%  so V - G*F' is never formed. If V is sparse, every product with V
+%  touches only its non-zeros.
+%
+%  Arguments:
+%  V: nxd data matrix
+%  niter: maximum number of iterations (default = 1000)
+%  r: number of roles (default = 5)
+%  F0: initial F matrix (default = random)
+%  G0: initial G matrix (default = random)
+%
+%  Returns:
+%  F: dxr cluster center matrix
+%  G: nxr cluster assignment matrix
+%  c1: cluster assignments
+%  loss_all: error of selected model
+%--------------------------------------------------------------------------
+if min(min(V)) < 0
+    error('matrix entries can not be negative');
+end
+V = V';
+
+[d,n] = size(V);
+if nargin<3
+    r = 5;
+end
+if nargin<2
+    niter = 1000;
+end
+mx = max(max(V));
+if nargin<5
+    G0 = rand(n,r)*mx;
+end
+if nargin<4
+    F0 = rand(d,r)*mx;
+end
+
+err_eps = 1e-5;
+epsilon = 1e-27;
+
+G = G0;
+F = F0;
+
+clear G0 F0;
+
+if r >= d
+    G = full(V');
+    F = eye(d);
+    loss = 0;
+elseif r >= n
+    G = eye(n);
+    F = full(V);
+    loss = 0;
+else
+    normV = full(sum(sum(V.^2)));
+    oldLoss = normV;
+    for i=1:niter
+        % update G one column at a time
+        VtF = V'*F;
+        FtF = F'*F;
+        for k=1:r
+            G(:,k) = max(epsilon, G(:,k) + ...
+                (VtF(:,k) - G*FtF(:,k)) / max(FtF(k,k), epsilon));
+        end
+
+        % update F one column at a time
+        VG = V*G;
+        GtG = G'*G;
+        for k=1:r
+            F(:,k) = max(epsilon, F(:,k) + ...
+                (VG(:,k) - F*GtG(:,k)) / max(GtG(k,k), epsilon));
+        end
+
+        FtF = F'*F;
+        sqLoss = normV - 2*sum(sum(F.*VG)) + sum(sum(FtF.*GtG));
+        loss = sqrt(max(sqLoss, 0));
+        if abs(oldLoss - sqLoss) < err_eps * max(normV, 1)
+            break;
+        end
+        oldLoss = sqLoss;
+    end
+end
+
+
+loss_all(1) = loss;
+a = 1./max(sum(G,2),1E-20);
+G_norm = sparse(1:n,1:n,a,n,n) * G;
+G_norm = G_norm+epsilon;
+loss_all(2) = -sum(sum(G_norm.*log2(G_norm)));
+
+
+
+F = F';
+
+% normalize F
+N = diag(1./max(sum(F,2), 1E-20));
+F = N * F;
+G = G * inv(N);
+
+%find cluster memeber ship
+%by max
+c1 = zeros(n,1);
+for i=1:n
+    id = find(G(i,:)==max(G(i,:)));
+    if numel(id) > 0
+        c1(i,1) = id(1);
+    else
+        c1(i,1) = 0;
+    end
+end
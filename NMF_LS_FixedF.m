@@ -58,12 +58,12 @@ for i=1:niter
     %Floss = sum(sum((F-Fold).^2));
     %Fold = F;
 
-    loss = sqrt(eval_Fro_loss(V,F,G));
     if abs(Gloss) < err_eps
 
         break;
     end
 end
+loss = sqrt(eval_Fro_loss(V,F,G));
 
 
 %disp([r i loss abs(loss-old_loss)]);
@@ -102,8 +102,10 @@ if ~issparse(V)
     temp = V-F*G';
     loss = sum(temp(:).^2);
 else
-    ind = find(V);
-    U = F*G';
-    loss = sum(V(ind).^2)+sum(U(:).^2)-2*V(ind)'*U(ind);
+    % ||V||^2 - 2*tr(F'*V*G) + tr((F'*F)*(G'*G)) touches only the
+    % non-zeros of V and never forms the dense F*G'
+    loss = full(sum(nonzeros(V).^2)) - 2*sum(sum(F.*(V*G))) + ...
+        sum(sum((F'*F).*(G'*G)));
+    loss = max(loss, 0);
 end
     
@@ -57,12 +57,12 @@ Gold = G;
 Fold = F;
 
 if r >= d
-    G = V';
+    G = full(V');
     F = eye(d);
     loss = 0;
 elseif r >= n
     G = eye(n);
-    F = V;
+    F = full(V);
     loss = 0;
 else
     for i=1:niter
@@ -74,12 +74,12 @@ else
         Floss = sum(sum((F-Fold).^2));
         Fold = F;
 
-        loss = sqrt(eval_Fro_loss(V,F,G));
         if abs(Gloss + Floss) < err_eps
 
             break;
         end
     end
+    loss = sqrt(eval_Fro_loss(V,F,G));
 end 
 
 %disp([r i loss abs(loss-old_loss)]);
@@ -118,8 +118,10 @@ if ~issparse(V)
     temp = V-F*G';
     loss = sum(temp(:).^2);
 else
-    ind = find(V);
-    U = F*G';
-    loss = sum(V(ind).^2)+sum(U(:).^2)-2*V(ind)'*U(ind);
+    % ||V||^2 - 2*tr(F'*V*G) + tr((F'*F)*(G'*G)) touches only the
+    % non-zeros of V and never forms the dense F*G'
+    loss = full(sum(nonzeros(V).^2)) - 2*sum(sum(F.*(V*G))) + ...
+        sum(sum((F'*F).*(G'*G)));
+    loss = max(loss, 0);
 end
     
@@ -13,31 +13,87 @@
 %  V - (node x feature) matrix
 %  bins - [optional] number of quantization bins (default=log2(n))
 %  maxRoles - [optional] maximum number of roles to try
+%  alg - [optional] NMF solver, 'mu' for the multiplicative updates in
+%        NMF_LS_new (default) or 'hals' for NMF_HALS
+%  init - [optional] starting point, 'nndsvd' for the deterministic
+%         NNDSVD initialization (default) or 'rand' for random
+%  collapse - [optional] if true (default), identical rows of V are
+%             factorized once, weighted by their multiplicity, and G is
+%             expanded back to one row per node at the end
+%
+% If fewer than sparseDensity of the entries are non-zero, V is stored
+% sparse. The solvers then only touch its non-zeros, and the model error
+% is computed from Gram matrices instead of the dense residual V-G*F.
 %
 % Outputs:
 %  F - (role x feature) matrix
 %  G - (node x role) matrix
 %  dLen - description length of model (bits)
 %
-function [F, G, dLen] = NMF_MDL_Quantized(V,bins,maxRoles)
+function [F, G, dLen] = NMF_MDL_Quantized(V,bins,maxRoles,alg,init,collapse)
 more off;
 format short;
 
-v = V(:);
+sparseDensity = 0.3;
 
-mx = max(v);
 [n,d] = size(V);
-if nargin < 2
+if nargin < 2 || isempty(bins)
     bins = log2(n);
 end
-if nargin < 3
+if nargin < 3 || isempty(maxRoles)
     maxRoles = n;
 end
+if nargin < 4 || isempty(alg)
+    alg = 'mu';
+end
+if nargin < 5 || isempty(init)
+    init = 'nndsvd';
+end
+if nargin < 6 || isempty(collapse)
+    collapse = true;
+end
 maxRoles = min(maxRoles, n);
 maxRoles = min(maxRoles, d);
 
-G0 = rand(n,maxRoles)*mx;
-F0 = rand(d,maxRoles)*mx;
+% Nodes with identical feature rows are factorized as one row U(i,:)
+% with multiplicity w(i). Scaling each unique row by sqrt(w(i)) makes the
+% plain NMF objective on U equal the objective on all of V, so the
+% solvers run unchanged on the smaller matrix.
+if collapse
+    [U, ~, ic] = unique(V, 'rows');
+    w = accumarray(ic(:), 1);
+else
+    U = V;
+    ic = (1:n)';
+    w = ones(n, 1);
+end
+nu = size(U, 1);
+% NNDSVD gives at most nu columns, and more roles than unique rows
+% cannot lower the error.
+maxRoles = min(maxRoles, nu);
+if ~issparse(U) && nnz(U) < sparseDensity*numel(U)
+    U = sparse(U);
+end
+sw = sqrt(w);
+Vs = spdiags(sw, 0, nu, nu) * U;
+
+mx = full(max(max(U)));
+N = n*d;
+rowSq = full(sum(U.^2, 2));
+mu = full(sum(w .* sum(U, 2))) / N;
+varV = (sum(w .* rowSq) - N*mu^2) / max(N-1, 1);
+Gw = [];
+
+% The k-role starting point is the first k columns of G0 and F0.
+switch lower(init)
+    case 'nndsvd'
+        [F0, G0] = NNDSVD(Vs, maxRoles);
+    case 'rand'
+        G0 = rand(nu,maxRoles)*mx;
+        F0 = rand(d,maxRoles)*mx;
+    otherwise
+        error('unknown NMF initialization: %s', init);
+end
 
 
 minDLen = 1e20;
@@ -48,20 +104,32 @@ thresh = 1e-5;
 
 numWorse = 0;
 for numRoles = 1:maxRoles
-    [F,G] = NMF_LS_new(V,1000,numRoles, 0, F0(:,1:numRoles), ...
-        G0(:,1:numRoles));
-    
+    switch lower(alg)
+        case 'hals'
+            [F,G] = NMF_HALS(Vs,1000,numRoles, F0(:,1:numRoles), ...
+                G0(:,1:numRoles));
+        case 'mu'
+            [F,G] = NMF_LS_new(Vs,1000,numRoles, 0, F0(:,1:numRoles), ...
+                G0(:,1:numRoles));
+        otherwise
+            error('unknown NMF algorithm: %s', alg);
+    end
+    G = bsxfun(@rdivide, G, sw);
+    if size(Gw, 2) ~= numRoles
+        Gw = repmat(w, 1, numRoles);
+    end
+
     [Ft,Fi] = MaxLloyd(F, bins, thresh);
-    [Gt,Gi] = MaxLloyd(G, bins, thresh);
+    [Gt,Gi] = MaxLloyd(G, bins, thresh, Gw);
     
-    cost = HuffmanCost(Fi, bits, 0) + HuffmanCost(Gi, bits, 0);
+    cost = HuffmanCost(Fi, bits, 0) + HuffmanCost(Gi, bits, 0, Gw);
 
 
-    E = abs(V-Gt*Ft);
+    % squared error of each unique row, ||U(i,:) - Gt(i,:)*Ft||^2
+    sqErr = rowSq - 2*sum(Gt.*(U*Ft'), 2) + sum((Gt*(Ft*Ft')).*Gt, 2);
+    sqErr = max(sqErr, 0);
 
-    err = E(:);
-    
-    logLikelihood = -0.5*log2(exp(1))/(var(v))*sum(err.^2);
+    logLikelihood = -0.5*log2(exp(1))/varV*sum(w .* sqErr);
     dLen = cost - logLikelihood;
     fprintf(1, ...
         'numRoles = %d, cost = %1.0f, -logLikelihood = %1.0f, dLen = %1.0f\n',...
@@ -80,5 +148,5 @@ for numRoles = 1:maxRoles
 end
 
 F = minF;
-G = minG;
+G = minG(ic,:);
 dLen = minDLen;
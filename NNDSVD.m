@@ -0,0 +1,68 @@
+%
+% Version: 1.0
+% Author: Keith Henderson
+% Contact: keith@llnl.gov
+%
+
+%
+% This function computes a deterministic starting point for NMF using
+% nonnegative double singular value decomposition (Boutsidis and
+% Gallopoulos). Each role is seeded from the dominant nonnegative part
+% of one singular triplet, so the first k columns of G0 and F0 are the
+% NNDSVD initialization for k roles. Zero entries are replaced with the
+% mean of V (the NNDSVDa variant) so multiplicative updates can still
+% move them.
+%
+% Inputs:
+%  V - (node x feature) matrix
+%  r - number of roles to initialize
+%
+% Outputs:
+%  F0 - (feature x role) initial matrix
+%  G0 - (node x role) initial matrix
+%
+function [F0, G0] = NNDSVD(V, r)
+
+[n,d] = size(V);
+r = min([r, n, d]);
+
+[U, S, W] = RandSVD(V, r);
+
+G0 = zeros(n, r);
+F0 = zeros(d, r);
+
+G0(:,1) = sqrt(S(1,1)) * abs(U(:,1));
+F0(:,1) = sqrt(S(1,1)) * abs(W(:,1));
+
+for j=2:r
+    x = U(:,j);
+    y = W(:,j);
+    xp = max(x, 0);
+    xn = max(-x, 0);
+    yp = max(y, 0);
+    yn = max(-y, 0);
+
+    nxp = norm(xp);
+    nxn = norm(xn);
+    nyp = norm(yp);
+    nyn = norm(yn);
+
+    mp = nxp * nyp;
+    mn = nxn * nyn;
+    if mp >= mn
+        sigma = mp;
+        u = xp / max(nxp, 1E-20);
+        v = yp / max(nyp, 1E-20);
+    else
+        sigma = mn;
+        u = xn / max(nxn, 1E-20);
+        v = yn / max(nyn, 1E-20);
+    end
+
+    G0(:,j) = sqrt(S(j,j) * sigma) * u;
+    F0(:,j) = sqrt(S(j,j) * sigma) * v;
+end
+
+avg = full(sum(sum(V))) / (n*d);
+G0(G0 < 1E-12) = avg;
+F0(F0 < 1E-12) = avg;
@@ -0,0 +1,53 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * Orders the nodes of a graph for the dense ids of SortedAdjacency, so
+ * that the nodes an egonet traversal touches together sit close together
+ * in its arrays. The order only changes memory layout: features are
+ * stored on the nodes themselves and written under their original ids.
+ *
+ * Methods (the refex.order system property, default degree):
+ *   none       file order (node creation order)
+ *   degree     decreasing degree; hubs, which appear in most egonets,
+ *              share the first cache lines
+ *
+ * Ties are broken by node id so every method is deterministic.
+ */
+public class NodeOrdering {
+
+	public enum Method { NONE, DEGREE }
+
+	public static final Method DEFAULT = Method.valueOf(
+			System.getProperty("refex.order", "degree").toUpperCase());
+
+	/**
+	 * The nodes of graph in the given order.
+	 */
+	public static AttributedNode[] order(AttributedGraph graph, Method method) {
+		AttributedNode[] ret = graph.getNodes().toArray(
+				new AttributedNode[graph.getNumNodes()]);
+		if(method == Method.DEGREE) {
+			Arrays.sort(ret, new Comparator<AttributedNode>() {
+				public int compare(AttributedNode x, AttributedNode y) {
+					int c = Integer.compare(y.numAdjacentLinks(), x.numAdjacentLinks());
+					return c != 0 ? c : Long.compare(x.id, y.id);
+				}
+			});
+		}
+		else {
+			Arrays.sort(ret, new Comparator<AttributedNode>() {
+				public int compare(AttributedNode x, AttributedNode y) {
+					return Long.compare(x.id, y.id);
+				}
+			});
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * Runs per-node work on a shared ForkJoinPool, balanced for graphs with
+ * skewed degree distributions.
+ *
+ * Each node's cost is estimated as its degree plus the degrees of its
+ * neighbors, which bounds the work of counting its level-1 egonet. Nodes
+ * are handed out heaviest first from a shared cursor, so hubs start
+ * immediately and the cheap nodes fill in the gaps at the end. A hub
+ * whose egonet is still too big for one thread is split by its egonet
+ * members (see split()); the parts are forked on the pool, where threads
+ * that have run out of nodes steal them.
+ *
+ * The number of threads comes from the refex.threads system property
+ * (default: all available processors) and the smallest egonet that is
+ * split from refex.splitSize (default 4096 nodes). With one thread all
+ * work runs in the calling thread, in the given order.
+ */
+public class NodeScheduler {
+
+	public static final int THREADS = Math.max(1, Integer.getInteger(
+			"refex.threads", Runtime.getRuntime().availableProcessors()));
+	public static final int SPLIT_SIZE = Integer.getInteger("refex.splitSize", 4096);
+
+	private static ForkJoinPool pool;
+
+	/** Work for the node at one index of the list given to forEach. */
+	public interface Task {
+		void run(int index);
+	}
+
+	static synchronized ForkJoinPool pool() {
+		if(pool == null) {
+			// idle pool threads retire; keep their allocation in the run report
+			pool = new ForkJoinPool(THREADS, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					return new ForkJoinWorkerThread(pool) {
+						protected void onTermination(Throwable exception) {
+							RunMetrics.threadEnding();
+							super.onTermination(exception);
+						}
+					};
+				}
+			}, null, false);
+		}
+		return pool;
+	}
+
+	/*
+	 * degree plus the sum of neighbor degrees for each node
+	 */
+	static long[] estimateCosts(List<AttributedNode> nodes) {
+		long[] costs = new long[nodes.size()];
+		for(int i = 0; i < costs.length; i++) {
+			AttributedNode node = nodes.get(i);
+			long cost = node.numAdjacentLinks();
+			for(AttributedLink link : node.getInLinks())
+				cost += link.src.numAdjacentLinks();
+			for(AttributedLink link : node.getOutLinks())
+				cost += link.dst.numAdjacentLinks();
+			costs[i] = cost;
+		}
+		return costs;
+	}
+
+	/**
+	 * Runs task for every index of nodes, heaviest nodes first. Returns
+	 * when all of them are done. Tasks for different nodes may run
+	 * concurrently, so they must only read shared state.
+	 */
+	public static void forEach(List<AttributedNode> nodes, final Task task) {
+		if(THREADS == 1 || nodes.size() < 2) {
+			for(int i = 0; i < nodes.size(); i++)
+				task.run(i);
+			return;
+		}
+
+		final long[] costs = estimateCosts(nodes);
+		Integer[] order = new Integer[nodes.size()];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(costs[b], costs[a]);
+			}
+		});
+		final Integer[] byCost = order;
+		final AtomicInteger next = new AtomicInteger(0);
+
+		final List<ForkJoinTask<?>> workers = new ArrayList<ForkJoinTask<?>>();
+		for(int t = 0; t < THREADS; t++) {
+			workers.add(ForkJoinTask.adapt(new Runnable() {
+				public void run() {
+					int k;
+					while((k = next.getAndIncrement()) < byCost.length)
+						task.run(byCost[k]);
+				}
+			}));
+		}
+		ForkJoinTask<?> all = pool().submit(new Runnable() {
+			public void run() {
+				ForkJoinTask.invokeAll(workers);
+			}
+		});
+		try {
+			all.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Whether an egonet with this many members should be split. Only
+	 * called from inside forEach, where other pool threads can help.
+	 */
+	public static boolean shouldSplit(int size) {
+		return THREADS > 1 && size >= SPLIT_SIZE &&
+				ForkJoinTask.inForkJoinPool();
+	}
+
+	/**
+	 * Runs the parts on the pool and returns their results in order. Must
+	 * be called from a pool thread (see shouldSplit).
+	 */
+	public static <T> List<T> split(List<Callable<T>> parts) {
+		List<ForkJoinTask<T>> tasks = new ArrayList<ForkJoinTask<T>>();
+		for(Callable<T> part : parts)
+			tasks.add(ForkJoinTask.adapt(part));
+		ForkJoinTask.invokeAll(tasks);
+		List<T> ret = new ArrayList<T>();
+		for(ForkJoinTask<T> task : tasks)
+			ret.add(task.join());
+		return ret;
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * A mergeable quantile sketch (KLL: Karnin, Lang and Liberty, "Optimal
+ * Quantile Approximation in Streams", 2016) for binning values without
+ * sorting all of them.
+ *
+ * Items sit in levels of compactors; an item at level h stands for 2^h
+ * values. When the sketch is over capacity the lowest full level is
+ * sorted and every other item, starting at a random offset, moves up a
+ * level. Level capacities shrink by 2/3 from the top, so the sketch
+ * holds a few k items and any rank is off by about n/k at most. Until
+ * it has seen more than k values the sketch keeps them all, and ranks
+ * are exact. Sketches built over parts of a column merge into a sketch
+ * of the whole.
+ *
+ * Vertical bins halve toward the top, so the last bins hold far fewer
+ * than n/k values and plain KLL loses them. As in the relative-error
+ * REQ sketch (Cormode et al., "Relative Error Streaming Quantiles",
+ * 2021), a compaction only promotes the smaller half of a level and
+ * keeps the larger half where it is: the largest values stay at low
+ * levels, and rank errors shrink toward the top.
+ *
+ * Set the refex.approxBins system property to true to bin features from
+ * sketches (see RankedRoleFinder.sketchBin); refex.sketchK sets k
+ * (default 512).
+ */
+public class QuantileSketch {
+
+	static final boolean ENABLED = Boolean.getBoolean("refex.approxBins");
+	static final int K = Integer.getInteger("refex.sketchK", 512);
+
+	private static final int MIN_CAPACITY = 8;
+
+	private final int k;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private int numLevels = 1;
+	private long count = 0;
+	// xorshift state for the compaction offsets, fixed so runs repeat
+	private long random = 0x9E3779B97F4A7C15L;
+
+	/** The items of a sketch in value order, each with the values it stands for. */
+	public static class Sorted {
+		public final double[] values;
+		public final long[] weights;
+
+		Sorted(double[] values, long[] weights) {
+			this.values = values;
+			this.weights = weights;
+		}
+	}
+
+	public QuantileSketch() {
+		this(K);
+	}
+
+	public QuantileSketch(int k) {
+		this.k = k;
+		levels[0] = new double[k + 1];
+	}
+
+	public void update(double value) {
+		append(0, value);
+		count++;
+		if(size() > capacity())
+			compress();
+	}
+
+	/** Adds the values other has seen to this sketch. */
+	public void merge(QuantileSketch other) {
+		while(numLevels < other.numLevels)
+			addLevel();
+		for(int h = 0; h < other.numLevels; h++)
+			for(int i = 0; i < other.sizes[h]; i++)
+				append(h, other.levels[h][i]);
+		count += other.count;
+		while(size() > capacity())
+			compress();
+	}
+
+	/** Number of values seen. */
+	public long count() {
+		return count;
+	}
+
+	/** Number of items held. */
+	public int size() {
+		int ret = 0;
+		for(int h = 0; h < numLevels; h++)
+			ret += sizes[h];
+		return ret;
+	}
+
+	/** Approximate number of values seen that are <= value. */
+	public long rank(double value) {
+		long ret = 0;
+		for(int h = 0; h < numLevels; h++)
+			for(int i = 0; i < sizes[h]; i++)
+				if(levels[h][i] <= value) ret += 1L << h;
+		return ret;
+	}
+
+	public Sorted sorted() {
+		int n = size();
+		final double[] values = new double[n];
+		final long[] weights = new long[n];
+		int at = 0;
+		for(int h = 0; h < numLevels; h++)
+			for(int i = 0; i < sizes[h]; i++, at++) {
+				values[at] = levels[h][i];
+				weights[at] = 1L << h;
+			}
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values[a], values[b]);
+			}
+		});
+		double[] sortedValues = new double[n];
+		long[] sortedWeights = new long[n];
+		for(int i = 0; i < n; i++) {
+			sortedValues[i] = values[order[i]];
+			sortedWeights[i] = weights[order[i]];
+		}
+		return new Sorted(sortedValues, sortedWeights);
+	}
+
+	private int capacity(int level) {
+		int depth = numLevels - 1 - level;
+		return Math.max(MIN_CAPACITY, (int)Math.ceil(k * Math.pow(2.0 / 3, depth)));
+	}
+
+	private int capacity() {
+		int ret = 0;
+		for(int h = 0; h < numLevels; h++)
+			ret += capacity(h);
+		return ret;
+	}
+
+	private void append(int level, double value) {
+		if(sizes[level] == levels[level].length)
+			levels[level] = Arrays.copyOf(levels[level], 2 * levels[level].length);
+		levels[level][sizes[level]++] = value;
+	}
+
+	private void addLevel() {
+		if(numLevels == levels.length) {
+			levels = Arrays.copyOf(levels, 2 * numLevels);
+			sizes = Arrays.copyOf(sizes, 2 * numLevels);
+		}
+		levels[numLevels] = new double[MIN_CAPACITY];
+		sizes[numLevels] = 0;
+		numLevels++;
+	}
+
+	/*
+	 * Compacts the lowest level that is at capacity: sorts it and moves
+	 * every other item of its smaller half up a level.
+	 */
+	private void compress() {
+		for(int h = 0; h < numLevels; h++) {
+			if(sizes[h] < capacity(h)) continue;
+			if(h + 1 == numLevels) addLevel();
+			double[] items = levels[h];
+			int size = sizes[h];
+			Arrays.sort(items, 0, size);
+			int half = (size / 2) & ~1;
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			for(int i = (int)(random & 1); i < half; i += 2)
+				append(h + 1, items[i]);
+			System.arraycopy(items, half, items, 0, size - half);
+			sizes[h] = size - half;
+			return;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+%
+% Version: 1.0
+% Author: Keith Henderson
+% Contact: keith@llnl.gov
+%
+
+%
+% This function computes a truncated SVD of V using a randomized range
+% finder (Halko, Martinsson and Tropp). The random test matrix is drawn
+% from a private, fixed-seed stream, so the result is reproducible and
+% the global random state is left alone. V may be sparse.
+%
+% Inputs:
+%  V - (node x feature) matrix
+%  k - number of singular triplets to keep
+%  oversample - [optional] extra test vectors (default=10)
+%  powerIters - [optional] number of power iterations (default=2)
+%
+% Outputs:
+%  U - (node x k) left singular vectors
+%  S - (k x k) diagonal matrix of singular values
+%  W - (feature x k) right singular vectors
+%
+function [U, S, W] = RandSVD(V, k, oversample, powerIters)
+
+if nargin < 3
+    oversample = 10;
+end
+if nargin < 4
+    powerIters = 2;
+end
+
+[n,d] = size(V);
+k = min([k, n, d]);
+l = min([k + oversample, n, d]);
+
+stream = RandStream('mt19937ar', 'Seed', 0);
+Omega = randn(stream, d, l);
+
+[Q,R] = qr(full(V*Omega), 0);
+for i=1:powerIters
+    [Q,R] = qr(full(V'*Q), 0);
+    [Q,R] = qr(full(V*Q), 0);
+end
+
+B = full(Q'*V);
+[Ub, S, W] = svd(B, 'econ');
+
+U = Q*Ub(:,1:k);
+S = S(1:k,1:k);
+W = W(:,1:k);
@@ -7,6 +7,7 @@
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -18,6 +19,22 @@ public class RankedRoleFinder {
 	private static final int MAX_ITERATIONS = 100;
 	private static final double TOLERANCE = 0.01;
 
+	/**
+	 * With the refex.directional system property set to true, the
+	 * primitive features also include the level-1 counts of the left
+	 * (in-link) and right (out-link) egonets, named like the symmetric
+	 * ones with an "l" or "r" in front (lxesu1, rwn1). They are counted
+	 * in the same pass as the symmetric level-1 egonet
+	 * (EgonetGenerator.getDirectedCounts). Level-0 egonets have no
+	 * direction. Recursive features aggregate over the symmetric egonet
+	 * only, as directional blocks there would triple the candidates of
+	 * every iteration's quadratic pruning; directional primitives still
+	 * recurse through them (xes1-lxesu1).
+	 */
+	static final boolean DIRECTIONAL = Boolean.getBoolean("refex.directional");
+	private static final String[] DIRECTIONS = DIRECTIONAL ?
+			new String[]{"", "l", "r"} : new String[]{""};
+
 	private static Map<String, Map<Double, Set<AttributedNode>>> sortedAttrSets = 
 		new HashMap<String, Map<Double, Set<AttributedNode>>>();
 	private static Map<String, Double> maxBins = new HashMap<String, Double>();
@@ -25,15 +42,19 @@ public class RankedRoleFinder {
 		new HashMap<String, Map<String, Boolean>>();
 	
 	// to see how much time we save over correlation
-	private static double checks = 0;
-	private static double corrChecks = 0;
+	static double checks = 0;
+	static double corrChecks = 0;
+	// feature pairs settled by memoizedMatches without a check
+	static double memoHits = 0;
+	// nodes whose features were copied from a structurally equivalent node
+	static double dedupedNodes = 0;
 	
 	static String[] firstIteration(AttributedGraph graph, 
 				       Collection<AttributedNode> nodes) {
 		if(nodes == null)
 			nodes = graph.getNodes();
 
-		String[] properties = {
+		final String[] properties = {
 				"wn",
 				"weu",
 				"wea-wgt",
@@ -50,55 +71,72 @@ public class RankedRoleFinder {
 		};
 
 
-		String[] ret = new String[properties.length*2];
+		// level 0, then level 1 for each direction
+		String[] ret = new String[properties.length*(1 + DIRECTIONS.length)];
 		int k = 0;
 		for(String property : properties) {
 			ret[k] = property.replace("a-wgt", "t") + "0";
-			ret[(k++) + properties.length] = property.replace("a-wgt", "t") + "1";
+			for(int d = 0; d < DIRECTIONS.length; d++)
+				ret[k + (d+1)*properties.length] = 
+					DIRECTIONS[d] + property.replace("a-wgt", "t") + "1";
+			k++;
 		}
 
 
-		EgonetGenerator egoGen = new EgonetGenerator(graph, null, null, new String[]{"wgt"});
-		for(AttributedNode node : nodes) {
-			Map<String, Double> counts; 
-
-			counts = egoGen.getCounts(node.id, 0);
-			for(String base : new String[]{"we", "xes", "xed", "xe"}) {
-				if(counts.get(base+"u") > 0) {
-					counts.put(base+"m", counts.get(base+"a-wgt")/counts.get(base+"u"));
-				}
-				else {
-					counts.put(base+"m", 0.0);
+		/*
+		 * Count egonets on the NodeScheduler threads, keeping the values in
+		 * values[class][property], then set the attributes here: the
+		 * counting threads only read node attributes. Structurally
+		 * equivalent nodes, and matching nodes of isomorphic small
+		 * components, get identical counts, so only one node of each
+		 * class is counted (see StructuralEquivalence).
+		 */
+		final EgonetGenerator egoGen = new EgonetGenerator(graph, null, null, new String[]{"wgt"});
+		final List<AttributedNode> allNodes = new ArrayList<AttributedNode>(nodes);
+		StructuralEquivalence equiv = new StructuralEquivalence(allNodes, "wgt",
+				ConnectedComponents.of(graph));
+		final List<AttributedNode> nodeList = equiv.representatives;
+		final double[][] values = new double[nodeList.size()][];
+		NodeScheduler.forEach(nodeList, new NodeScheduler.Task() {
+			public void run(int index) {
+				AttributedNode node = nodeList.get(index);
+				double[] nodeValues = new double[properties.length*(1 + DIRECTIONS.length)];
+				int block = 0;
+				for(int level = 0; level <= 1; level++) {
+					Map<String, Double> counts = level == 1 && DIRECTIONAL ?
+							egoGen.getDirectedCounts(node.id, level) : 
+							egoGen.getCounts(node.id, level);
+					for(String dir : level == 0 ? new String[]{""} : DIRECTIONS) {
+						for(String base : new String[]{"we", "xes", "xed", "xe"}) {
+							if(counts.get(dir+base+"u") > 0) {
+								counts.put(dir+base+"m", 
+										counts.get(dir+base+"a-wgt")/counts.get(dir+base+"u"));
+							}
+							else {
+								counts.put(dir+base+"m", 0.0);
+							}
+						}
+						for(int p = 0; p < properties.length; p++) {
+							nodeValues[p + block*properties.length] = counts.get(dir+properties[p]);
+						}
+						block++;
+					}
 				}
+				values[index] = nodeValues;
 			}
-			for(String property : properties) {
-				node.setAttr(property.replace("a-wgt", "t")+'0', counts.get(property));
-			}
+		});
 
-			counts = egoGen.getCounts(node.id, 1);
-			for(String base : new String[]{"we", "xes", "xed", "xe"}) {
-				if(counts.get(base+"u") > 0) {
-					counts.put(base+"m", counts.get(base+"a-wgt")/counts.get(base+"u"));
-				}
-				else {
-					counts.put(base+"m", 0.0);
-				}
-			}
-			for(String property : properties) {
-				node.setAttr(property.replace("a-wgt", "t")+'1', counts.get(property));
-			}
-			
-		}
+		setValues(allNodes, equiv, ret, values);
 
 		return ret;
 	}
 
 	static String[] nextIteration(AttributedGraph graph, Collection<AttributedNode> nodes,
-			String[] attrs) {
+			final String[] attrs) {
 		if(nodes == null)
 			nodes = graph.getNodes();
 
-		String[] properties = {
+		final String[] properties = {
 				"xes",
 				"xed",
 				"xe",
@@ -119,80 +157,84 @@ public class RankedRoleFinder {
 		}
 
 		
-		EgonetGenerator egoGen = new EgonetGenerator(graph, null, null, null, attrs);
+		final EgonetGenerator egoGen = new EgonetGenerator(graph, null, null, null, attrs);
 		
 
-		
-		
-		Map<String, Double> counts; 
-		for(AttributedNode node : nodes) {
-
-			counts = egoGen.getCounts(node.id, 0);
-			for(String attr : attrs) {
-				counts.put("wna-"+attr, (Double)node.getAttr(attr));
-
-				for(String base : new String[]{"xe", "xes", "xed"}) {
-					if(counts.get(base+"u") > 0) {
-						counts.put(base+"m-"+attr, counts.get(base+"a-"+attr)/counts.get(base+"u"));
+		/*
+		 * As in firstIteration, count one node per structural equivalence
+		 * class on the NodeScheduler threads and set the attributes
+		 * afterwards. values[class] is laid out like ret.
+		 */
+		final List<AttributedNode> allNodes = new ArrayList<AttributedNode>(nodes);
+		StructuralEquivalence equiv = new StructuralEquivalence(allNodes, "wgt",
+				ConnectedComponents.of(graph));
+		final List<AttributedNode> nodeList = equiv.representatives;
+		final double[][] values = new double[nodeList.size()][];
+		NodeScheduler.forEach(nodeList, new NodeScheduler.Task() {
+			public void run(int index) {
+				AttributedNode node = nodeList.get(index);
+				double[] nodeValues = new double[properties.length*2*attrs.length];
+				int k = 0;
+				for(int level = 0; level <= 1; level++) {
+					Map<String, Double> counts = egoGen.getCounts(node.id, level);
+					for(String attr : attrs) {
+						if(level == 0) {
+							counts.put("wna-"+attr, (Double)node.getAttr(attr));
+						}
+						else {
+							double count = 0;
+							for(AttributedLink link : node.getLinks()) {
+								AttributedNode neighbor = link.src.equals(node) ? link.dst : link.src;
+								count += (Double) neighbor.getAttr(attr);
+							}
+							counts.put("wna-"+attr, count);
+						}
+
+						for(String base : new String[]{"xe", "xes", "xed"}) {
+							if(counts.get(base+"u") > 0) {
+								counts.put(base+"m-"+attr, counts.get(base+"a-"+attr)/counts.get(base+"u"));
+							}
+							else {
+								counts.put(base+"m-"+attr, 0.0);
+							}
+						}
+						counts.put("wnm-"+attr, counts.get("wna-"+attr) / counts.get("wn"));
 					}
-					else {
-						counts.put(base+"m-"+attr, 0.0);
-					}
-				}
-				counts.put("wnm-"+attr, counts.get("wna-"+attr) / counts.get("wn"));
-			}
 
-			for(String attr : attrs) {
-				for(String property : properties) {
-					if(property.endsWith("m")) {
-						node.setAttr(property+"0-" + attr.replace("wgt-", ""),
-								counts.get(property + "-" + attr));
-					}
-					else {
-						node.setAttr(property + "0-" + attr.replace("wgt-", ""),
-								counts.get(property + "a-" + attr));
+					for(String attr : attrs) {
+						for(String property : properties) {
+							if(property.endsWith("m")) {
+								nodeValues[k++] = counts.get(property + "-" + attr);
+							}
+							else {
+								nodeValues[k++] = counts.get(property + "a-" + attr);
+							}
+						}
 					}
 				}
+				values[index] = nodeValues;
 			}
+		});
 
-			counts = egoGen.getCounts(node.id, 1);
-
-			for(String attr : attrs) {
-				double count = 0;
-				for(AttributedLink link : node.getLinks()) {
-					AttributedNode neighbor = link.src.equals(node) ? link.dst : link.src;
-					count += (Double) neighbor.getAttr(attr);
-				}
-				counts.put("wna-"+attr, count);
-
-
-				for(String base : new String[]{"xe", "xes", "xed"}) {
-					if(counts.get(base+"u") > 0) {
-						counts.put(base+"m-"+attr, counts.get(base+"a-"+attr)/counts.get(base+"u"));
-					}
-					else {
-						counts.put(base+"m-"+attr, 0.0);
-					}
-				}
-				counts.put("wnm-"+attr, counts.get("wna-"+attr) / counts.get("wn"));
-			}
+		setValues(allNodes, equiv, ret, values);
 
+		return ret;
+	}
 
-			for(String attr : attrs) {
-				for(String property : properties) {
-					if(property.endsWith("m")) {
-						node.setAttr(property+"1-" + attr.replace("wgt-", ""),
-								counts.get(property + "-" + attr));
-					}
-					else {
-						node.setAttr(property + "1-" + attr.replace("wgt-", ""),
-								counts.get(property + "a-" + attr));
-					}
-				}
+	/*
+	 * Sets the values computed for each class representative on every
+	 * member of its class.
+	 */
+	private static void setValues(List<AttributedNode> allNodes,
+			StructuralEquivalence equiv, String[] attrs, double[][] values) {
+		for(int i = 0; i < allNodes.size(); i++) {
+			AttributedNode node = allNodes.get(i);
+			double[] nodeValues = values[equiv.classOf[i]];
+			for(int p = 0; p < attrs.length; p++) {
+				node.setAttr(attrs[p], nodeValues[p]);
 			}
 		}
-
-		return ret;
+		dedupedNodes += allNodes.size() - equiv.numClasses();
 	}
 
 	static String[] calculateAttrs(AttributedGraph graph, 
@@ -213,6 +255,8 @@ public class RankedRoleFinder {
 
 
 	static String verticalBin(AttributedGraph graph, String attr, double binSize) {
+		if(QuantileSketch.ENABLED)
+			return sketchBin(graph, attr, binSize);
 
 		int numNodes = graph.getNodes().size();
 		int added = 0;
@@ -225,8 +269,7 @@ public class RankedRoleFinder {
 				this.node = node;
 			}
 			public int compareTo(Pair o) {
-				Pair p = (Pair)o;
-				return value - p.value < 0?-1:1;
+				return Double.compare(value, o.value);
 			}
 			public String toString() { 
 				return node.getAttr("nodeID") + ": " + value;
@@ -269,6 +312,143 @@ public class RankedRoleFinder {
 		return "wgt-" + attr;
 	}
 
+	/**
+	 * verticalBin for a column of values held outside the graph: replaces
+	 * every value with its bin, exactly as verticalBin would assign it.
+	 * Equal values always share a bin, so each value's bin can be looked
+	 * up at any of its positions in the sorted column.
+	 */
+	static void binColumn(final double[] column, double binSize) {
+		if(QuantileSketch.ENABLED) {
+			BinBoundaries bins = sketchBins(sketch(column.length, new Column() {
+				public double get(long i) { return column[(int)i]; }
+			}), binSize);
+			for(int i = 0; i < column.length; i++)
+				column[i] = bins.bin(column[i]);
+			return;
+		}
+		int numNodes = 0;
+		for(double value : column)
+			if(Math.abs(value - 0) > 1E-5) numNodes++;
+		double[] sorted = new double[numNodes];
+		int added = 0;
+		for(double value : column)
+			if(Math.abs(value - 0) > 1E-5) sorted[added++] = value;
+		Arrays.sort(sorted);
+
+		double[] scores = new double[numNodes];
+		if(numNodes > 0) {
+			double score = 1;
+			int needed = (int)Math.ceil(binSize*(numNodes));
+			int thisBin = 1;
+			scores[0] = score;
+			for(added = 1; added < numNodes; added++) {
+				if(absDiff(sorted[added], sorted[added-1]) > TOLERANCE && thisBin >= needed) {
+					score += 1;
+					thisBin = 0;
+					needed = (int)Math.ceil(binSize*(numNodes-added));
+				}
+				scores[added] = score;
+				thisBin++;
+			}
+		}
+
+		for(int i = 0; i < column.length; i++) {
+			if(Math.abs(column[i] - 0) > 1E-5)
+				column[i] = scores[Arrays.binarySearch(sorted, column[i])];
+			else
+				column[i] = 0.0;
+		}
+	}
+
+	/** Values by position, for building a sketch of a column. */
+	interface Column {
+		double get(long i);
+	}
+
+	// values per part of a column sketched by one task
+	private static final int SKETCH_PART = 1 << 16;
+
+	/**
+	 * Approximate verticalBin: bins attr by boundaries read off a
+	 * QuantileSketch of its nonzero values instead of a full sort.
+	 */
+	static String sketchBin(AttributedGraph graph, String attr, double binSize) {
+		final List<AttributedNode> nodes = new ArrayList<AttributedNode>(graph.getNodes());
+		final String name = attr;
+		BinBoundaries bins = sketchBins(sketch(nodes.size(), new Column() {
+			public double get(long i) { return (Double)nodes.get((int)i).getAttr(name); }
+		}), binSize);
+		for(AttributedNode n : nodes)
+			n.setAttr("wgt-" + attr, bins.bin((Double)n.getAttr(attr)));
+		return "wgt-" + attr;
+	}
+
+	/**
+	 * Sketches the values of column that verticalBin would bin (those
+	 * not within 1E-5 of zero). Parts of SKETCH_PART values are sketched
+	 * on the NodeScheduler pool and merged in order, so the result does
+	 * not depend on the number of threads.
+	 */
+	static QuantileSketch sketch(final long length, final Column column) {
+		List<Callable<QuantileSketch>> parts = new ArrayList<Callable<QuantileSketch>>();
+		for(long start = 0; start < length; start += SKETCH_PART) {
+			final long from = start, to = Math.min(length, start + SKETCH_PART);
+			parts.add(new Callable<QuantileSketch>() {
+				public QuantileSketch call() {
+					QuantileSketch part = new QuantileSketch();
+					for(long i = from; i < to; i++) {
+						double value = column.get(i);
+						if(Math.abs(value - 0) > 1E-5) part.update(value);
+					}
+					return part;
+				}
+			});
+		}
+		QuantileSketch ret = new QuantileSketch();
+		try {
+			if(NodeScheduler.THREADS > 1 && parts.size() > 1) {
+				for(Future<QuantileSketch> part : NodeScheduler.pool().invokeAll(parts))
+					ret.merge(part.get());
+			}
+			else {
+				for(Callable<QuantileSketch> part : parts)
+					ret.merge(part.call());
+			}
+		}
+		catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+		return ret;
+	}
+
+	/**
+	 * The bins verticalBin would assign to the values a sketch stands
+	 * for: the same walk up the sorted values, with each sketch item
+	 * counting for its weight. While the sketch holds every value this
+	 * gives verticalBin's bins exactly.
+	 */
+	static BinBoundaries sketchBins(QuantileSketch sketch, double binSize) {
+		QuantileSketch.Sorted items = sketch.sorted();
+		long numNodes = sketch.count();
+		List<Double> lows = new ArrayList<Double>();
+		long added = 0, thisBin = 0;
+		long needed = (long)Math.ceil(binSize*(numNodes));
+		for(int i = 0; i < items.values.length; i++) {
+			if(i > 0 && absDiff(items.values[i], items.values[i-1]) > TOLERANCE
+					&& thisBin >= needed) {
+				lows.add(items.values[i]);
+				thisBin = 0;
+				needed = (long)Math.ceil(binSize*(numNodes-added));
+			}
+			added += items.weights[i];
+			thisBin += items.weights[i];
+		}
+		double[] ret = new double[lows.size()];
+		for(int i = 0; i < ret.length; i++) ret[i] = lows.get(i);
+		return new BinBoundaries(ret);
+	}
+
 	static Set<String> calculateReps(AttributedGraph graph, 
 			int maxDist, Set<String> candidates,
 			Map<String, Double> maxBins,
@@ -293,6 +473,7 @@ public class RankedRoleFinder {
 				if(memoizedMatches.containsKey(attr1) && 
 						memoizedMatches.get(attr1).containsKey(attr2)) {
 					if(memoizedMatches.get(attr1).get(attr2)) {
+						memoHits++;
 						union(attr1, attr2, p);
 						continue;
 					}
@@ -328,10 +509,32 @@ public class RankedRoleFinder {
 	}
 
 	
-	private static boolean attrOrdersAgree(String attr1, String attr2, 
+	static boolean attrOrdersAgree(String attr1, String attr2, 
 			AttributedGraph graph, int maxAllowed, Map<String, Double> maxBins,
 			Map<String, Map<Double, Set<AttributedNode>>> sortedAttrSets,
 			Map<String, Map<String, Boolean>> memoizedMatches) {
+		AgreementEvent event = new AgreementEvent();
+		if(!event.isEnabled())
+			return ordersAgree(attr1, attr2, maxAllowed, maxBins, sortedAttrSets);
+
+		event.begin();
+		double before = checks;
+		boolean agree = ordersAgree(attr1, attr2, maxAllowed, maxBins, sortedAttrSets);
+		event.end();
+		if(event.shouldCommit()) {
+			event.feature1 = attr1;
+			event.feature2 = attr2;
+			event.maxAllowed = maxAllowed;
+			event.checks = (long)(checks - before);
+			event.agree = agree;
+			event.commit();
+		}
+		return agree;
+	}
+
+	private static boolean ordersAgree(String attr1, String attr2,
+			int maxAllowed, Map<String, Double> maxBins,
+			Map<String, Map<Double, Set<AttributedNode>>> sortedAttrSets) {
 		double index1 = maxBins.get(attr1), index2 = maxBins.get(attr2);
 		
 	
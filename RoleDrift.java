@@ -0,0 +1,291 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Scores successive feature snapshots against a fixed role model and
+ * reports the nodes whose roles moved. This replaces running
+ * NMF_LS_FixedF.m on every snapshot (run_fixed.sh) and diffing the
+ * node-role files by hand.
+ *
+ * Command line arguments:
+ * roleFeatureFile: role-by-feature matrix from GenerateRoles or Matlab
+ *                  (.bin for GenerateRoles' binary format, else ASCII)
+ * historyFile: binary role history, created on first use and appended
+ *              to by every run
+ * threshold: smallest role change that is reported, in [0, 1]
+ * snapshotFiles: one or more featureValues.csv files from
+ *                CalculateFeatures, with the features in the order of
+ *                the role model, scored in the order given
+ *
+ * Each snapshot is read once, in blocks of BLOCK rows, and the role
+ * vectors of each block are solved on the NodeScheduler pool with F
+ * held fixed (NMF.solveFixedF). A node's role vector is compared, as
+ * role memberships summing to one, with the last vector recorded for
+ * it; the change is half their L1 distance, so 0 is no change and 1 a
+ * complete change of role. Nodes that appear or disappear, or whose
+ * features are all zero, change by 1. Nodes whose change reaches
+ * threshold are written to <snapshot>-drift.csv (nodeID,change,
+ * previousRole,role, with -1 for no role) and their new vector becomes
+ * the one recorded, so slow drift is reported once it adds up.
+ *
+ * The history holds only the recorded vectors: an int role count, then
+ * for each snapshot its file name, an int count and that many
+ * (nodeID, role memberships as floats) records, written with
+ * DataOutputStream. Replaying it gives each node's recorded vector
+ * after any snapshot; a node that disappeared has all zeros.
+ */
+public class RoleDrift {
+
+	// rows of a snapshot solved together
+	static final int BLOCK = 4096;
+
+	private final double[] F;
+	private final int d, r;
+	private final Map<String, float[]> recorded = new HashMap<String, float[]>();
+
+	/**
+	 * @param roleFeatures (role x feature) matrix, column-major
+	 */
+	public RoleDrift(double[] roleFeatures, int r, int d) {
+		this.r = r;
+		this.d = d;
+		F = new double[d*r];
+		for(int k = 0; k < r; k++)
+			for(int j = 0; j < d; j++)
+				F[j + k*d] = roleFeatures[k + j*r];
+	}
+
+	/*
+	 * The rows of one block and, once solved, their role memberships.
+	 */
+	private class Block implements Callable<Block> {
+		final List<String> ids = new ArrayList<String>();
+		final List<double[]> rows = new ArrayList<double[]>();
+		double[] G;
+
+		public Block call() {
+			int n = ids.size();
+			double[] V = new double[n*d];
+			double mx = 0;
+			for(int i = 0; i < n; i++) {
+				double[] row = rows.get(i);
+				for(int j = 0; j < d; j++) {
+					V[i + j*n] = row[j];
+					mx = Math.max(mx, row[j]);
+				}
+			}
+			rows.clear();
+			// NMF_LS_FixedF.m starts from rand(n,r)*mx; start from the
+			// middle of that range so runs repeat
+			G = new double[n*r];
+			Arrays.fill(G, Math.max(mx, 1.0) / 2);
+			NMF.solveFixedF(V, n, d, F, r, G, NMF.MAX_ITERATIONS);
+			for(int i = 0; i < n; i++) {
+				double s = 0;
+				for(int k = 0; k < r; k++) s += G[i + k*n];
+				s = Math.max(s, 1e-20);
+				for(int k = 0; k < r; k++) G[i + k*n] /= s;
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Replays a history file into the recorded vectors.
+	 */
+	public void readHistory(String historyFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(historyFile)));
+		try {
+			if(in.readInt() != r)
+				throw new IOException(historyFile + " was not written for " + r + " roles");
+			while(true) {
+				try {
+					in.readUTF();
+				}
+				catch(EOFException e) {
+					break;
+				}
+				int count = in.readInt();
+				for(int c = 0; c < count; c++) {
+					String id = in.readUTF();
+					float[] vec = new float[r];
+					for(int k = 0; k < r; k++) vec[k] = in.readFloat();
+					if(role(vec) < 0) recorded.remove(id);
+					else recorded.put(id, vec);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Scores one snapshot, writes its drift file and appends the changed
+	 * vectors to the history.
+	 *
+	 * @return the number of nodes reported
+	 */
+	public int score(String featureFile, double threshold, String historyFile)
+			throws IOException, InterruptedException, ExecutionException {
+		String driftFile = featureFile.replaceAll("\\.csv$", "") + "-drift.csv";
+		PrintStream drift = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(driftFile)));
+		ByteArrayOutputStream changed = new ByteArrayOutputStream();
+		DataOutputStream history = new DataOutputStream(changed);
+		Set<String> seen = new HashSet<String>();
+		int reported = 0;
+
+		// read ahead while earlier blocks are solved, at most two per thread
+		Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+		BufferedReader reader = new BufferedReader(new FileReader(featureFile));
+		Block block = new Block();
+		String curLine;
+		boolean done = false;
+		while(!done) {
+			curLine = reader.readLine();
+			if(curLine != null) {
+				String[] fields = curLine.split(",");
+				if(fields.length != d + 1) {
+					reader.close();
+					drift.close();
+					throw new IOException(featureFile + " has " + (fields.length - 1) +
+							" features, the role model " + d + ": " + curLine);
+				}
+				double[] row = new double[d];
+				for(int j = 0; j < d; j++) row[j] = Double.parseDouble(fields[j+1]);
+				block.ids.add(fields[0]);
+				block.rows.add(row);
+			}
+			else {
+				done = true;
+			}
+			if(block.ids.size() == BLOCK || (done && !block.ids.isEmpty())) {
+				if(NodeScheduler.THREADS > 1) {
+					pending.add(NodeScheduler.pool().submit(block));
+				}
+				else {
+					pending.add(CompletableFuture.completedFuture(block.call()));
+				}
+				block = new Block();
+			}
+			while(!pending.isEmpty() && (done || pending.size() > 2 * NodeScheduler.THREADS))
+				reported += compare(pending.poll().get(), threshold, seen, drift, history);
+		}
+		reader.close();
+
+		// nodes that are gone
+		float[] none = new float[r];
+		for(Iterator<Map.Entry<String, float[]>> it = recorded.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, float[]> e = it.next();
+			if(seen.contains(e.getKey())) continue;
+			drift.println(e.getKey() + ",1.0," + role(e.getValue()) + ",-1");
+			write(history, e.getKey(), none);
+			it.remove();
+			reported++;
+		}
+		drift.close();
+
+		boolean created = !new File(historyFile).exists();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(historyFile, true)));
+		if(created) out.writeInt(r);
+		out.writeUTF(new File(featureFile).getName());
+		out.writeInt(reported);
+		history.flush();
+		changed.writeTo(out);
+		out.close();
+		return reported;
+	}
+
+	private int compare(Block block, double threshold, Set<String> seen,
+			PrintStream drift, DataOutputStream history) throws IOException {
+		int n = block.ids.size(), reported = 0;
+		double[] G = block.G;
+		for(int i = 0; i < n; i++) {
+			String id = block.ids.get(i);
+			seen.add(id);
+			float[] vec = new float[r];
+			for(int k = 0; k < r; k++) vec[k] = (float)G[i + k*n];
+			float[] old = recorded.get(id);
+			// a node with no features has no role, as if it were absent
+			boolean none = role(vec) < 0;
+			double change = 1.0;
+			if(old != null && !none) {
+				change = 0;
+				for(int k = 0; k < r; k++) change += Math.abs(vec[k] - old[k]);
+				change /= 2;
+			}
+			if((old == null && none) || change < threshold) continue;
+			drift.println(id + "," + change + "," + (old == null ? -1 : role(old)) +
+					"," + role(vec));
+			write(history, id, vec);
+			if(none) recorded.remove(id);
+			else recorded.put(id, vec);
+			reported++;
+		}
+		return reported;
+	}
+
+	private static void write(DataOutputStream history, String id, float[] vec)
+			throws IOException {
+		history.writeUTF(id);
+		for(float x : vec) history.writeFloat(x);
+	}
+
+	/*
+	 * The role with the largest membership, or -1 for all zeros.
+	 */
+	private static int role(float[] vec) {
+		int ret = -1;
+		for(int k = 0; k < vec.length; k++)
+			if(vec[k] > 0 && (ret < 0 || vec[k] > vec[ret])) ret = k;
+		return ret;
+	}
+
+	/**
+	 * @param args = roleFeatureFile historyFile threshold snapshotFile...
+	 */
+	public static void main(String[] args) throws Exception {
+		String roleFile = null, historyFile = null;
+		double threshold = -1;
+		try {
+			roleFile = args[0];
+			historyFile = args[1];
+			threshold = Double.parseDouble(args[2]);
+			if(args.length < 4 || threshold < 0 || threshold > 1)
+				throw new IllegalArgumentException();
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java RoleDrift roleFeatureFile historyFile " +
+			"threshold snapshotFile [snapshotFile ...]");
+			return;
+		}
+
+		int[] dims = new int[2];
+		double[] roleFeatures = GenerateRoles.readMatrix(roleFile,
+				roleFile.endsWith(".bin"), dims);
+		RoleDrift drift = new RoleDrift(roleFeatures, dims[0], dims[1]);
+		if(new File(historyFile).exists())
+			drift.readHistory(historyFile);
+		System.out.println(dims[0] + " roles, " + dims[1] + " features, " +
+				drift.recorded.size() + " nodes recorded");
+
+		for(int a = 3; a < args.length; a++) {
+			long clock = System.currentTimeMillis();
+			int reported = drift.score(args[a], threshold, historyFile);
+			System.out.println(TimeUtils.dateAsString(System.currentTimeMillis()) +
+					": " + args[a] + ": " + reported + " nodes changed role, " +
+					(System.currentTimeMillis() - clock) + " ms");
+		}
+	}
+}
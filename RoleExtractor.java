@@ -0,0 +1,358 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+/**
+ * RolX role discovery in Java. Tries increasing numbers of roles,
+ * factorizes the node-feature matrix with NMF, and keeps the model
+ * with the smallest description length. Quantization is performed
+ * using Max-Lloyd and values are compressed with Huffman codes. This
+ * is a port of NMF_MDL_Quantized.m, MaxLloyd.m and HuffmanCost.m.
+ */
+public class RoleExtractor {
+	protected static final double THRESH = 1e-5;
+	protected static final int MAX_WORSE = 5;
+
+	/**
+	 * A role model: V ~ G*F.
+	 */
+	public static class Model {
+		/** (role x feature) matrix, column-major */
+		public final double[] F;
+		/** (node x role) matrix, column-major */
+		public final double[] G;
+		public final int numNodes, numFeatures, numRoles;
+		/** description length of the model (bits) */
+		public final double dLen;
+
+		Model(double[] F, double[] G, int numNodes, int numFeatures,
+				int numRoles, double dLen) {
+			this.F = F;
+			this.G = G;
+			this.numNodes = numNodes;
+			this.numFeatures = numFeatures;
+			this.numRoles = numRoles;
+			this.dLen = dLen;
+		}
+	}
+
+	protected NMF.Algorithm alg = NMF.Algorithm.MU;
+	protected boolean nndsvd = true;
+	protected boolean collapse = true;
+
+	public RoleExtractor() {
+	}
+
+	/**
+	 * @param alg NMF solver
+	 * @param nndsvd if true, seed every role count from NNDSVD; otherwise random
+	 * @param collapse if true, factorize identical rows once, weighted
+	 *        by their multiplicity
+	 */
+	public RoleExtractor(NMF.Algorithm alg, boolean nndsvd, boolean collapse) {
+		this.alg = alg;
+		this.nndsvd = nndsvd;
+		this.collapse = collapse;
+	}
+
+	public Model extract(FeatureMatrix features) {
+		return extract(features.values, features.numRows, features.numCols,
+				Math.log(features.numRows)/Math.log(2), features.numRows);
+	}
+
+	/**
+	 * Selects the number of roles by minimum description length.
+	 *
+	 * @param V (node x feature) matrix, column-major
+	 * @param bins number of quantization bins (usually log2(n))
+	 * @param maxRoles maximum number of roles to try
+	 */
+	public Model extract(double[] V, int n, int d, double bins, int maxRoles) {
+		for(double v : V)
+			if(v < 0) throw new IllegalArgumentException(
+					"matrix entries can not be negative");
+		maxRoles = Math.min(maxRoles, Math.min(n, d));
+
+		/*
+		 * Nodes with identical feature rows are factorized as one row U(i,:)
+		 * with multiplicity w(i). Scaling each unique row by sqrt(w(i)) makes
+		 * the plain NMF objective on U equal the objective on all of V.
+		 */
+		int[] rowOf = new int[n];
+		double[] U = collapse ? uniqueRows(V, n, d, rowOf) : V;
+		int nu = U.length / Math.max(d, 1);
+		// the collapsed matrix has rank at most nu
+		maxRoles = Math.min(maxRoles, nu);
+		if(!collapse)
+			for(int i = 0; i < n; i++) rowOf[i] = i;
+		double[] w = new double[nu];
+		for(int i = 0; i < n; i++) w[rowOf[i]]++;
+
+		double[] sw = new double[nu];
+		for(int i = 0; i < nu; i++) sw[i] = Math.sqrt(w[i]);
+		double[] Vs = new double[nu*d];
+		double mx = 0;
+		double[] rowSq = new double[nu];
+		double sum = 0, sumSq = 0;
+		for(int j = 0; j < d; j++) {
+			for(int i = 0; i < nu; i++) {
+				double u = U[i + j*nu];
+				Vs[i + j*nu] = u * sw[i];
+				mx = Math.max(mx, u);
+				rowSq[i] += u*u;
+				sum += w[i]*u;
+				sumSq += w[i]*u*u;
+			}
+		}
+		double N = (double)n*d;
+		double mu = sum / N;
+		double varV = (sumSq - N*mu*mu) / Math.max(N-1, 1);
+
+		// The k-role starting point is the first k columns of G0 and F0.
+		double[] G0 = new double[nu*maxRoles], F0 = new double[d*maxRoles];
+		if(nndsvd) {
+			NMF.nndsvd(Vs, nu, d, maxRoles, G0, F0);
+		}
+		else {
+			Random rand = new Random();
+			for(int x = 0; x < G0.length; x++) G0[x] = rand.nextDouble()*mx;
+			for(int x = 0; x < F0.length; x++) F0[x] = rand.nextDouble()*mx;
+		}
+
+		double bits = Math.log(bins)/Math.log(2);
+		double minDLen = 1e20;
+		Model best = null;
+		int numWorse = 0;
+		for(int r = 1; r <= maxRoles; r++) {
+			double[] G = Arrays.copyOf(G0, nu*r);
+			double[] F = Arrays.copyOf(F0, d*r);
+			NMF.factorize(alg, Vs, nu, d, G, F, r, NMF.MAX_ITERATIONS);
+
+			// normalize roles so each row of F (role x feature) sums to one
+			double[] Fr = new double[r*d];
+			for(int k = 0; k < r; k++) {
+				double s = 0;
+				for(int j = 0; j < d; j++) s += F[j + k*d];
+				s = Math.max(s, 1e-20);
+				for(int j = 0; j < d; j++) Fr[k + j*r] = F[j + k*d] / s;
+				for(int i = 0; i < nu; i++) G[i + k*nu] *= s / sw[i];
+			}
+
+			double[] Gw = new double[nu*r];
+			for(int k = 0; k < r; k++)
+				System.arraycopy(w, 0, Gw, k*nu, nu);
+
+			double[] Ft = new double[r*d], Gt = new double[nu*r];
+			int[] Fi = maxLloyd(Fr, null, bins, THRESH, Ft);
+			int[] Gi = maxLloyd(G, Gw, bins, THRESH, Gt);
+			double cost = huffmanCost(Fi, null, bits, 0) +
+				huffmanCost(Gi, Gw, bits, 0);
+
+			// squared error of each unique row, ||U(i,:) - Gt(i,:)*Ft||^2
+			double[] FtT = transpose(Ft, r, d);
+			double[] UFt = NMF.mult(U, nu, d, FtT, r);
+			double[] GtFFt = NMF.mult(Gt, nu, r, NMF.gram(FtT, d, r), r);
+			double err = 0;
+			for(int i = 0; i < nu; i++) {
+				double e = rowSq[i];
+				for(int k = 0; k < r; k++) {
+					double g = Gt[i + k*nu];
+					e += g * (GtFFt[i + k*nu] - 2*UFt[i + k*nu]);
+				}
+				err += w[i] * Math.max(e, 0);
+			}
+
+			double logLikelihood = -0.5*(Math.log(Math.E)/Math.log(2))/varV*err;
+			double dLen = cost - logLikelihood;
+			System.out.println(String.format(
+					"numRoles = %d, cost = %1.0f, -logLikelihood = %1.0f, dLen = %1.0f",
+					r, cost, -logLikelihood, dLen));
+			if(dLen < minDLen) {
+				minDLen = dLen;
+				best = new Model(Fr, expandRows(G, nu, r, rowOf), n, d, r, dLen);
+				numWorse = 0;
+			}
+			else if(++numWorse == MAX_WORSE) {
+				break;
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * Returns the distinct rows of V (in order of first appearance) and
+	 * fills rowOf with the index of each node's distinct row.
+	 */
+	static double[] uniqueRows(double[] V, int n, int d, int[] rowOf) {
+		Map<Row, Integer> seen = new HashMap<Row, Integer>();
+		int[] first = new int[n];
+		int nu = 0;
+		for(int i = 0; i < n; i++) {
+			double[] row = new double[d];
+			for(int j = 0; j < d; j++) row[j] = V[i + j*n];
+			Row key = new Row(row);
+			Integer u = seen.get(key);
+			if(u == null) {
+				u = nu;
+				seen.put(key, u);
+				first[nu++] = i;
+			}
+			rowOf[i] = u;
+		}
+		double[] U = new double[nu*d];
+		for(int j = 0; j < d; j++)
+			for(int u = 0; u < nu; u++)
+				U[u + j*nu] = V[first[u] + j*n];
+		return U;
+	}
+
+	/*
+	 * Hash key for one row of feature values.
+	 */
+	private static class Row {
+		final double[] values;
+		final int hash;
+		Row(double[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+		public int hashCode() {
+			return hash;
+		}
+		public boolean equals(Object o) {
+			return o instanceof Row && Arrays.equals(values, ((Row)o).values);
+		}
+	}
+
+	static double[] expandRows(double[] A, int m, int k, int[] rowOf) {
+		int n = rowOf.length;
+		double[] B = new double[n*k];
+		for(int j = 0; j < k; j++)
+			for(int i = 0; i < n; i++)
+				B[i + j*n] = A[rowOf[i] + j*m];
+		return B;
+	}
+
+	static double[] transpose(double[] A, int m, int k) {
+		double[] B = new double[k*m];
+		for(int j = 0; j < k; j++)
+			for(int i = 0; i < m; i++)
+				B[j + i*k] = A[i + j*m];
+		return B;
+	}
+
+	/**
+	 * Max-Lloyd quantization of the values in flat, as in MaxLloyd.m.
+	 *
+	 * @param wts per-element multiplicities, or null for all ones
+	 * @param L number of quanta
+	 * @param thresh iteration stops when the error improves by less than this
+	 * @param Q output, quantized values
+	 * @return quanta labels 1..m, numbered in order of first appearance
+	 */
+	static int[] maxLloyd(double[] flat, double[] wts, double L, double thresh,
+			double[] Q) {
+		int n = flat.length;
+		int[] M = new int[n];
+		if(n == 0) return M;
+
+		double mn = Double.POSITIVE_INFINITY, mx = Double.NEGATIVE_INFINITY;
+		double minW = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < n; i++) {
+			mn = Math.min(mn, flat[i]);
+			mx = Math.max(mx, flat[i]);
+			minW = Math.min(minW, wts == null ? 1 : wts[i]);
+		}
+		int numQuanta = (int)Math.ceil(L);
+		double[] Y = new double[numQuanta];
+		for(int j = 0; j < numQuanta; j++)
+			Y[j] = j*(mx-mn)/numQuanta;
+
+		double oldErr = 0;
+		for(int i = 0; i < n; i++)
+			oldErr += (wts == null ? 1 : wts[i]) * flat[i]*flat[i];
+
+		double[] ySize = new double[numQuanta], newY = new double[numQuanta];
+		while(true) {
+			Arrays.fill(ySize, 0);
+			Arrays.fill(newY, 0);
+			for(int i = 0; i < n; i++) {
+				int bestJ = 0;
+				double bestDiff = Math.abs(flat[i] - Y[0]);
+				for(int j = 1; j < numQuanta; j++) {
+					if(Math.abs(flat[i] - Y[j]) < bestDiff) {
+						bestJ = j;
+						bestDiff = Math.abs(flat[i] - Y[j]);
+					}
+				}
+				M[i] = bestJ;
+				double wi = wts == null ? 1 : wts[i];
+				ySize[bestJ] += wi;
+				newY[bestJ] += wi*flat[i];
+			}
+			for(int j = 0; j < numQuanta; j++)
+				Y[j] = newY[j] / Math.max(ySize[j], minW);
+			for(int i = 0; i < n; i++)
+				Q[i] = Y[M[i]];
+
+			// MaxLloyd.m measures convergence on the last element only.
+			double newErr = (flat[n-1]-Q[n-1])*(flat[n-1]-Q[n-1]);
+			if(oldErr - newErr < thresh)
+				break;
+			oldErr = newErr;
+		}
+
+		int next = 1;
+		int[] mp = new int[numQuanta];
+		for(int i = 0; i < n; i++) {
+			if(mp[M[i]] == 0)
+				mp[M[i]] = next++;
+			M[i] = mp[M[i]];
+		}
+		return M;
+	}
+
+	/**
+	 * Cost of storing the symbols in V (values 1..m) with a Huffman code,
+	 * as in HuffmanCost.m.
+	 *
+	 * @param wts per-element multiplicities, or null for all ones
+	 * @param symBits cost of storing a single symbol
+	 * @param posBits cost of storing the position of a value
+	 */
+	static double huffmanCost(int[] V, double[] wts, double symBits,
+			double posBits) {
+		int m = 0;
+		for(int v : V) m = Math.max(m, v);
+		double[] counts = new double[m+1];
+		for(int i = 0; i < V.length; i++)
+			counts[V[i]] += wts == null ? 1 : wts[i];
+
+		PriorityQueue<Object> q = new PriorityQueue<Object>(
+				Math.max(2*m, 1), new HuffmanComparator());
+		for(int i = 1; i <= m; i++)
+			q.add(new Object[]{counts[i], new int[]{i}});
+
+		int[] costs = new int[m+1];
+		while(q.size() > 1) {
+			Object[] u = (Object[])q.poll();
+			Object[] v = (Object[])q.poll();
+			int[] a = (int[])u[1], b = (int[])v[1];
+			int[] elem = Arrays.copyOf(a, a.length + b.length);
+			System.arraycopy(b, 0, elem, a.length, b.length);
+			for(int e : elem) costs[e]++;
+			q.add(new Object[]{(Double)u[0] + (Double)v[0], elem});
+		}
+
+		double c = 0;
+		for(int i = 1; i <= m; i++)
+			c += symBits + costs[i];
+		for(int i = 0; i < V.length; i++)
+			c += (wts == null ? 1 : wts[i]) * (costs[V[i]] + posBits);
+		return c;
+	}
+}
@@ -0,0 +1,616 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Nearest-neighbor index over node role vectors (rows of G), or over
+ * feature rows, for "which nodes play the same role as X?" queries.
+ * Similarity is the cosine of two rows.
+ *
+ * Rows are scaled to unit length, where ranking by cosine is ranking by
+ * Euclidean distance, and put in a kd-tree. Role vectors have few
+ * dimensions (one per role), where a kd-tree answers exact k-nearest
+ * queries by visiting a handful of leaves. Hashing schemes such as
+ * random-projection LSH lose most of the true neighbors in the dense
+ * buckets such low-dimensional data produces. For wide feature rows a
+ * query can be capped at a number of checked rows instead, trading
+ * exactness for time.
+ *
+ * The tree is implicit: node t covers rows [lo, hi) of the tree order,
+ * its children 2t+1 and 2t+2 cover [lo, mid) and [mid, hi) with mid the
+ * middle row, and only each node's split dimension and value are
+ * stored. Rows, node IDs and an open-addressing table from node ID to
+ * row are all kept in tree order in one file, which is memory-mapped
+ * read-only in chunks of 1 GB, so opening an index reads nothing up
+ * front and an index may be larger than one mapping allows. Queries only
+ * use absolute reads and may run in parallel. Subtrees are built in
+ * parallel on the NodeScheduler pool. The file is big-endian, and every
+ * int and float sits at a multiple of 4 bytes, so none straddles two
+ * chunks:
+ *
+ *   int magic, n, dim, numNodes, hashSize, long idBytes
+ *   float rows[n][dim]
+ *   int splitDim[numNodes] (-1 for a leaf), float splitValue[numNodes]
+ *   int hash[hashSize] (row + 1, 0 for empty)
+ *   long idStart[n + 1], then the node IDs in UTF-8
+ *
+ * Command line:
+ *   build indexFile roles=nodeRoles ids=idFile
+ *   build indexFile features=featureValues.csv
+ *   query indexFile nodeID [k] [maxChecks]
+ *   recall indexFile [queries] [k] [maxChecks]
+ */
+public class RoleIndex {
+
+	private static final int MAGIC = 0x52584932;
+	// header size in ints
+	private static final int HEADER = 7;
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	// rows per leaf
+	static final int LEAF = 16;
+	// smallest subtree built as a separate task
+	private static final int PARALLEL = 1 << 15;
+
+	/** A node returned by a query. */
+	public static class Neighbor {
+		public final String id;
+		public final double similarity;
+
+		Neighbor(String id, double similarity) {
+			this.id = id;
+			this.similarity = similarity;
+		}
+
+		public String toString() {
+			return id + "," + similarity;
+		}
+	}
+
+	private final ByteBuffer[] chunks;
+	public final int n, dim;
+	private final int numNodes, hashSize;
+	private final long rowsAt, splitDimAt, splitValueAt, hashAt, idStartAt, idsAt;
+
+	private RoleIndex(ByteBuffer[] chunks) throws IOException {
+		this.chunks = chunks;
+		if(chunks.length == 0 || chunks[0].capacity() < 4 * HEADER || getInt(0) != MAGIC)
+			throw new IOException("not a role index");
+		n = getInt(4);
+		dim = getInt(8);
+		numNodes = getInt(12);
+		hashSize = getInt(16);
+		rowsAt = 4 * HEADER;
+		splitDimAt = rowsAt + 4L * n * dim;
+		splitValueAt = splitDimAt + 4L * numNodes;
+		hashAt = splitValueAt + 4L * numNodes;
+		idStartAt = hashAt + 4L * hashSize;
+		idsAt = idStartAt + 8L * (n + 1);
+	}
+
+	/** Maps an index file written by build. */
+	public static RoleIndex open(String indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			long size = raf.length();
+			ByteBuffer[] chunks = new ByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for(int c = 0; c < chunks.length; c++) {
+				long start = (long)c << CHUNK_BITS;
+				chunks[c] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+						start, Math.min(size - start, 1L << CHUNK_BITS));
+			}
+			return new RoleIndex(chunks);
+		}
+		finally {
+			// the mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	private byte get(long at) {
+		return chunks[(int)(at >>> CHUNK_BITS)].get((int)(at & CHUNK_MASK));
+	}
+
+	private int getInt(long at) {
+		return chunks[(int)(at >>> CHUNK_BITS)].getInt((int)(at & CHUNK_MASK));
+	}
+
+	private float getFloat(long at) {
+		return chunks[(int)(at >>> CHUNK_BITS)].getFloat((int)(at & CHUNK_MASK));
+	}
+
+	// longs are only 4-aligned, so read as two ints
+	private long getLong(long at) {
+		return ((long)getInt(at) << 32) | (getInt(at + 4) & 0xffffffffL);
+	}
+
+	/*
+	 * Number of tree nodes, counting the unused slots of the implicit
+	 * numbering, for n rows.
+	 */
+	private static int numNodes(int node, int lo, int hi) {
+		if(hi - lo <= LEAF) return node + 1;
+		int mid = (lo + hi) >>> 1;
+		return Math.max(numNodes(2*node + 1, lo, mid), numNodes(2*node + 2, mid, hi));
+	}
+
+	/*
+	 * Builds the subtree of one node: splits its rows at the middle of
+	 * the dimension they spread most in.
+	 */
+	private static class Split extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final float[] rows;
+		final int[] order, splitDim;
+		final float[] splitValue;
+		final int dim, node, lo, hi;
+
+		Split(float[] rows, int[] order, int[] splitDim, float[] splitValue,
+				int dim, int node, int lo, int hi) {
+			this.rows = rows;
+			this.order = order;
+			this.splitDim = splitDim;
+			this.splitValue = splitValue;
+			this.dim = dim;
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi - lo <= LEAF) {
+				splitDim[node] = -1;
+				return;
+			}
+			int best = 0;
+			float spread = -1;
+			for(int j = 0; j < dim; j++) {
+				float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+				for(int i = lo; i < hi; i++) {
+					float x = rows[order[i]*dim + j];
+					if(x < min) min = x;
+					if(x > max) max = x;
+				}
+				if(max - min > spread) {
+					spread = max - min;
+					best = j;
+				}
+			}
+			int mid = (lo + hi) >>> 1;
+			select(best, mid);
+			splitDim[node] = best;
+			splitValue[node] = rows[order[mid]*dim + best];
+
+			Split left = new Split(rows, order, splitDim, splitValue, dim, 2*node + 1, lo, mid);
+			Split right = new Split(rows, order, splitDim, splitValue, dim, 2*node + 2, mid, hi);
+			if(hi - lo > PARALLEL && NodeScheduler.THREADS > 1) {
+				invokeAll(left, right);
+			}
+			else {
+				left.compute();
+				right.compute();
+			}
+		}
+
+		/*
+		 * Reorders order[lo, hi) so that position mid holds the row that
+		 * belongs there by dimension j, smaller ones before it and larger
+		 * ones after.
+		 */
+		private void select(int j, int mid) {
+			int l = lo, h = hi - 1;
+			while(l < h) {
+				float pivot = rows[order[(l + h) >>> 1]*dim + j];
+				int a = l, b = h;
+				while(a <= b) {
+					while(rows[order[a]*dim + j] < pivot) a++;
+					while(rows[order[b]*dim + j] > pivot) b--;
+					if(a <= b) {
+						int t = order[a];
+						order[a++] = order[b];
+						order[b--] = t;
+					}
+				}
+				if(mid <= b) h = b;
+				else if(mid >= a) l = a;
+				else return;
+			}
+		}
+	}
+
+	/**
+	 * Builds an index over the rows of the (n x dim, column-major) matrix
+	 * A and writes it to indexFile.
+	 */
+	public static RoleIndex build(double[] A, String[] ids, int dim,
+			String indexFile) throws IOException {
+		int n = ids.length;
+		if((long)n * dim > Integer.MAX_VALUE - 8 || n >= 1 << 29)
+			throw new IllegalArgumentException(n + " rows of " + dim
+					+ " values do not fit in the build arrays");
+		float[] rows = new float[n * dim];
+		for(int i = 0; i < n; i++) {
+			double norm = 0;
+			for(int j = 0; j < dim; j++) norm += A[i + j*n] * A[i + j*n];
+			norm = Math.sqrt(norm);
+			for(int j = 0; j < dim; j++)
+				rows[i*dim + j] = norm > 0 ? (float)(A[i + j*n] / norm) : 0f;
+		}
+
+		int numNodes = numNodes(0, 0, n);
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		int[] splitDim = new int[numNodes];
+		float[] splitValue = new float[numNodes];
+		Split root = new Split(rows, order, splitDim, splitValue, dim, 0, 0, n);
+		if(NodeScheduler.THREADS > 1)
+			NodeScheduler.pool().invoke(root);
+		else
+			root.invoke();
+
+		// node IDs in tree order and the ID hash table, at most half full
+		byte[][] idBytes = new byte[n][];
+		long totalBytes = 0;
+		for(int i = 0; i < n; i++) {
+			idBytes[i] = ids[order[i]].getBytes(StandardCharsets.UTF_8);
+			totalBytes += idBytes[i].length;
+		}
+		int hashSize = Integer.highestOneBit(Math.max(2 * n, 1)) * 2;
+		int[] hash = new int[hashSize];
+		for(int i = 0; i < n; i++) {
+			int h = (ids[order[i]].hashCode() & 0x7fffffff) & (hashSize - 1);
+			while(hash[h] != 0) h = (h + 1) & (hashSize - 1);
+			hash[h] = i + 1;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(n);
+			out.writeInt(dim);
+			out.writeInt(numNodes);
+			out.writeInt(hashSize);
+			out.writeLong(totalBytes);
+			for(int i = 0; i < n; i++)
+				for(int j = 0; j < dim; j++)
+					out.writeFloat(rows[order[i]*dim + j]);
+			for(int x : splitDim) out.writeInt(x);
+			for(float x : splitValue) out.writeFloat(x);
+			for(int x : hash) out.writeInt(x);
+			long start = 0;
+			for(int i = 0; i < n; i++) {
+				out.writeLong(start);
+				start += idBytes[i].length;
+			}
+			out.writeLong(start);
+			for(byte[] b : idBytes) out.write(b);
+		}
+		finally {
+			out.close();
+		}
+		return open(indexFile);
+	}
+
+	public String id(int row) {
+		long start = getLong(idStartAt + 8L*row);
+		long end = getLong(idStartAt + 8L*(row + 1));
+		byte[] b = new byte[(int)(end - start)];
+		for(int x = 0; x < b.length; x++) b[x] = get(idsAt + start + x);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/** Row of a node ID, or -1. */
+	public int row(String id) {
+		byte[] want = id.getBytes(StandardCharsets.UTF_8);
+		int h = (id.hashCode() & 0x7fffffff) & (hashSize - 1);
+		int row;
+		while((row = getInt(hashAt + 4L*h) - 1) >= 0) {
+			long start = getLong(idStartAt + 8L*row);
+			long end = getLong(idStartAt + 8L*(row + 1));
+			boolean match = end - start == want.length;
+			for(int x = 0; match && x < want.length; x++)
+				match = get(idsAt + start + x) == want[x];
+			if(match) return row;
+			h = (h + 1) & (hashSize - 1);
+		}
+		return -1;
+	}
+
+	private float value(int row, int j) {
+		return getFloat(rowsAt + 4 * ((long)row*dim + j));
+	}
+
+	public double similarity(int a, int b) {
+		double dot = 0;
+		for(int j = 0; j < dim; j++)
+			dot += value(a, j) * value(b, j);
+		return dot;
+	}
+
+	/*
+	 * The k closest rows found so far, as a max-heap on distance.
+	 */
+	private static class Best {
+		final double[] dist;
+		final int[] rows;
+		int size = 0, checks = 0;
+
+		Best(int k) {
+			dist = new double[k];
+			rows = new int[k];
+		}
+
+		double worst() {
+			return size < dist.length ? Double.POSITIVE_INFINITY : dist[0];
+		}
+
+		void offer(double d, int row) {
+			if(dist.length == 0) return;
+			int i;
+			if(size < dist.length) {
+				i = size++;
+				while(i > 0 && dist[(i - 1) / 2] < d) {
+					dist[i] = dist[(i - 1) / 2];
+					rows[i] = rows[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+			}
+			else {
+				if(d >= dist[0]) return;
+				i = 0;
+				while(true) {
+					int c = 2*i + 1;
+					if(c >= size) break;
+					if(c + 1 < size && dist[c + 1] > dist[c]) c++;
+					if(dist[c] <= d) break;
+					dist[i] = dist[c];
+					rows[i] = rows[c];
+					i = c;
+				}
+			}
+			dist[i] = d;
+			rows[i] = row;
+		}
+	}
+
+	/*
+	 * Depth first, nearer child first; the far child is skipped when
+	 * the split plane is farther than the k-th best row, or once
+	 * maxChecks rows have been checked.
+	 */
+	private void search(float[] q, int skip, int node, int lo, int hi, Best best,
+			int maxChecks) {
+		int j = getInt(splitDimAt + 4L*node);
+		if(j < 0) {
+			for(int row = lo; row < hi; row++) {
+				if(row == skip) continue;
+				double d = 0;
+				for(int x = 0; x < dim; x++) {
+					double diff = q[x] - value(row, x);
+					d += diff * diff;
+				}
+				best.offer(d, row);
+				best.checks++;
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		double diff = q[j] - getFloat(splitValueAt + 4L*node);
+		if(diff < 0) {
+			search(q, skip, 2*node + 1, lo, mid, best, maxChecks);
+			if(diff * diff < best.worst() && (maxChecks <= 0 || best.checks < maxChecks))
+				search(q, skip, 2*node + 2, mid, hi, best, maxChecks);
+		}
+		else {
+			search(q, skip, 2*node + 2, mid, hi, best, maxChecks);
+			if(diff * diff <= best.worst() && (maxChecks <= 0 || best.checks < maxChecks))
+				search(q, skip, 2*node + 1, lo, mid, best, maxChecks);
+		}
+	}
+
+	/**
+	 * The k nodes most similar to id, most similar first, not counting
+	 * id itself. Empty if id is not in the index.
+	 */
+	public List<Neighbor> query(String id, int k) {
+		return query(id, k, 0);
+	}
+
+	/**
+	 * As query(id, k), but stops looking once maxChecks rows have been
+	 * compared (0 for no limit), so the answer may not be exact.
+	 */
+	public List<Neighbor> query(String id, int k, int maxChecks) {
+		int q = row(id);
+		if(q < 0 || n == 0) return new ArrayList<Neighbor>();
+		float[] vec = new float[dim];
+		for(int j = 0; j < dim; j++) vec[j] = value(q, j);
+		Best best = new Best(Math.min(k, n - 1));
+		search(vec, q, 0, 0, n, best, maxChecks);
+		return neighbors(q, best);
+	}
+
+	/** As query, by comparing id with every row. */
+	public List<Neighbor> exact(String id, int k) {
+		int q = row(id);
+		if(q < 0 || n == 0) return new ArrayList<Neighbor>();
+		float[] vec = new float[dim];
+		for(int j = 0; j < dim; j++) vec[j] = value(q, j);
+		Best best = new Best(Math.min(k, n - 1));
+		for(int row = 0; row < n; row++) {
+			if(row == q) continue;
+			double d = 0;
+			for(int x = 0; x < dim; x++) {
+				double diff = vec[x] - value(row, x);
+				d += diff * diff;
+			}
+			best.offer(d, row);
+		}
+		return neighbors(q, best);
+	}
+
+	/*
+	 * The rows of best, most similar to row q first.
+	 */
+	private List<Neighbor> neighbors(int q, Best best) {
+		Integer[] found = new Integer[best.size];
+		for(int i = 0; i < found.length; i++) found[i] = i;
+		final Best b = best;
+		Arrays.sort(found, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				int c = Double.compare(b.dist[x], b.dist[y]);
+				return c != 0 ? c : Integer.compare(b.rows[x], b.rows[y]);
+			}
+		});
+		List<Neighbor> ret = new ArrayList<Neighbor>();
+		for(int i : found)
+			ret.add(new Neighbor(id(best.rows[i]), similarity(q, best.rows[i])));
+		return ret;
+	}
+
+	/*
+	 * Matlab's save -ASCII writes IDs as %16.7e; turn those back into
+	 * the integers CalculateFeatures wrote.
+	 */
+	private static String readId(String token) {
+		token = token.trim();
+		if(token.indexOf('e') > 0 || token.indexOf('E') > 0) {
+			try {
+				double x = Double.parseDouble(token);
+				if(x == Math.rint(x)) return Long.toString((long)x);
+			}
+			catch(NumberFormatException e) {
+			}
+		}
+		return token;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java RoleIndex build indexFile " +
+		"(roles=nodeRolesFile ids=idFile | features=featureValuesFile)\n" +
+		"       java RoleIndex query indexFile nodeID [k] [maxChecks]\n" +
+		"       java RoleIndex recall indexFile [queries] [k] [maxChecks]");
+	}
+
+	public static void main(String[] args) throws Exception {
+		String command = args.length > 0 ? args[0] : "";
+		boolean build = command.equals("build"), query = command.equals("query"),
+			recall = command.equals("recall");
+		if(!(build || query || recall) || args.length < 2 || (query && args.length < 3)
+				|| ((query || recall) && args.length > 5)) {
+			usage();
+			return;
+		}
+		String indexFile = args[1];
+		String roles = null, idFile = null, features = null, id = null;
+		int k = 10, maxChecks = 0, queries = 1000;
+		try {
+			if(build) {
+				for(int a = 2; a < args.length; a++) {
+					if(args[a].startsWith("roles=")) roles = args[a].substring(6);
+					else if(args[a].startsWith("ids=")) idFile = args[a].substring(4);
+					else if(args[a].startsWith("features=")) features = args[a].substring(9);
+					else throw new IllegalArgumentException(args[a]);
+				}
+				if((roles == null || idFile == null) == (features == null))
+					throw new IllegalArgumentException();
+			}
+			else if(query) {
+				id = args[2];
+				if(args.length > 3) k = Integer.parseInt(args[3]);
+				if(args.length > 4) maxChecks = Integer.parseInt(args[4]);
+			}
+			else {
+				if(args.length > 2) queries = Integer.parseInt(args[2]);
+				if(args.length > 3) k = Integer.parseInt(args[3]);
+				if(args.length > 4) maxChecks = Integer.parseInt(args[4]);
+			}
+		}
+		catch(IllegalArgumentException e) {
+			usage();
+			return;
+		}
+
+		if(build) {
+			long clock = System.currentTimeMillis();
+			double[] A;
+			String[] ids;
+			int dim;
+			if(features != null) {
+				List<String[]> lines = new ArrayList<String[]>();
+				BufferedReader reader = new BufferedReader(new FileReader(features));
+				String curLine;
+				while((curLine = reader.readLine()) != null)
+					lines.add(curLine.split(","));
+				reader.close();
+				int n = lines.size();
+				dim = n == 0 ? 0 : lines.get(0).length - 1;
+				ids = new String[n];
+				A = new double[n * dim];
+				for(int i = 0; i < n; i++) {
+					ids[i] = lines.get(i)[0];
+					for(int j = 0; j < dim; j++)
+						A[i + j*n] = Double.parseDouble(lines.get(i)[j+1]);
+				}
+			}
+			else {
+				int[] dims = new int[2];
+				A = GenerateRoles.readMatrix(roles, roles.endsWith(".bin"), dims);
+				dim = dims[1];
+				List<String> idList = new ArrayList<String>();
+				BufferedReader reader = new BufferedReader(new FileReader(idFile));
+				String curLine;
+				while((curLine = reader.readLine()) != null)
+					if(curLine.trim().length() > 0) idList.add(readId(curLine));
+				reader.close();
+				ids = idList.toArray(new String[idList.size()]);
+				if(ids.length != dims[0])
+					throw new IOException(idFile + " has " + ids.length + " IDs, " +
+							roles + " " + dims[0] + " rows");
+			}
+			RoleIndex index = build(A, ids, dim, indexFile);
+			System.out.println(index.n + " nodes, " + index.dim + " dimensions: " +
+					(System.currentTimeMillis() - clock) + " ms");
+		}
+		else if(query) {
+			RoleIndex index = open(indexFile);
+			if(index.row(id) < 0) System.err.println(id + " is not in the index");
+			long clock = System.nanoTime();
+			List<Neighbor> result = index.query(id, k, maxChecks);
+			clock = System.nanoTime() - clock;
+			for(Neighbor nb : result) System.out.println(nb);
+			System.err.println(result.size() + " neighbors in " + clock / 1000 + " us");
+		}
+		else {
+			RoleIndex index = open(indexFile);
+			Random rand = new Random(1);
+			double found = 0, wanted = 0;
+			long clock = 0;
+			for(int x = 0; x < queries && index.n > 1; x++) {
+				String qid = index.id(rand.nextInt(index.n));
+				long start = System.nanoTime();
+				List<Neighbor> approx = index.query(qid, k, maxChecks);
+				clock += System.nanoTime() - start;
+				List<Neighbor> exact = index.exact(qid, k);
+				// rows tied with the k-th exact neighbor count as found
+				double kth = exact.get(exact.size() - 1).similarity;
+				for(Neighbor nb : approx)
+					if(nb.similarity >= kth - 1e-6) found++;
+				wanted += exact.size();
+			}
+			System.out.println("recall@" + k + " = " + (wanted > 0 ? found / wanted : 1.0) +
+					", " + (queries > 0 ? clock / 1000 / queries : 0) + " us per query");
+		}
+	}
+}
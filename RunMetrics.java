@@ -0,0 +1,210 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Collects per-phase timings and run-wide counters for a feature run and
+ * writes them as a JSON report, so throughput can be compared across
+ * runs and a regression traced to the phase that caused it.
+ *
+ * A phase is timed between begin() and end(); timing the same phase name
+ * again adds to it. For every phase the report gives wall-clock seconds,
+ * bytes allocated, and nodes and edges processed per second. Allocation
+ * is read from the JVM's per-thread counters when the JVM supports them:
+ * the sum over live threads plus what threads recorded through
+ * threadEnding() before they ended, as the NodeScheduler pool threads
+ * do. Peak heap is the sum of the heap memory pool peaks since the
+ * metrics were created.
+ */
+public class RunMetrics {
+
+	static class Phase {
+		final String name;
+		double seconds = 0;
+		long allocated = 0;
+		long startTime, startAllocated;
+		Phase(String name) { this.name = name; }
+	}
+
+	private final String program;
+	private final long startTime;
+	private final long startAllocated;
+	private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	private final Map<String, Object> info = new LinkedHashMap<String, Object>();
+	private final Map<String, Double> counters = new LinkedHashMap<String, Double>();
+	private final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+	// bytes allocated by threads that have ended, by thread ID
+	private static final Map<Long, Long> endedThreads = new ConcurrentHashMap<Long, Long>();
+
+	/** graph size used for the per-second rates */
+	public long numNodes = 0, numEdges = 0;
+
+	public RunMetrics(String program) {
+		this.program = program;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+		startTime = System.nanoTime();
+		startAllocated = allocatedBytes();
+	}
+
+	public void begin(String name) {
+		Phase phase = phases.get(name);
+		if(phase == null) {
+			phase = new Phase(name);
+			phases.put(name, phase);
+		}
+		phase.startTime = System.nanoTime();
+		phase.startAllocated = allocatedBytes();
+	}
+
+	public void end(String name) {
+		Phase phase = phases.get(name);
+		phase.seconds += (System.nanoTime() - phase.startTime) / 1e9;
+		phase.allocated += allocatedBytes() - phase.startAllocated;
+	}
+
+	/** Records a descriptive value (graph name, feature count, ...). */
+	public void put(String name, Object value) {
+		info.put(name, value);
+	}
+
+	public void setCounter(String name, double value) {
+		counters.put(name, value);
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean tbean = (com.sun.management.ThreadMXBean)bean;
+		if(!tbean.isThreadAllocatedMemorySupported() ||
+				!tbean.isThreadAllocatedMemoryEnabled())
+			return null;
+		return tbean;
+	}
+
+	/**
+	 * Records the calling thread's allocation just before it ends, so
+	 * the totals keep counting it afterwards.
+	 */
+	static void threadEnding() {
+		com.sun.management.ThreadMXBean tbean = allocationBean();
+		if(tbean == null) return;
+		long id = Thread.currentThread().getId();
+		long bytes = tbean.getThreadAllocatedBytes(id);
+		if(bytes > 0) endedThreads.put(id, bytes);
+	}
+
+	/*
+	 * Bytes allocated so far by the live threads and the ended threads
+	 * recorded by threadEnding(), or -1 if the JVM does not track
+	 * allocation. A thread still running after threadEnding() is counted
+	 * once, from its record.
+	 */
+	static long allocatedBytes() {
+		com.sun.management.ThreadMXBean tbean = allocationBean();
+		if(tbean == null) return -1;
+		long[] ids = tbean.getAllThreadIds();
+		long[] allocated = tbean.getThreadAllocatedBytes(ids);
+		long total = 0;
+		for(int i = 0; i < ids.length; i++)
+			if(allocated[i] > 0 && !endedThreads.containsKey(ids[i])) total += allocated[i];
+		for(long bytes : endedThreads.values())
+			total += bytes;
+		return total;
+	}
+
+	long peakHeapBytes() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool : heapPools)
+			peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(char c : s.toCharArray()) {
+			if(c == '"' || c == '\\') sb.append('\\').append(c);
+			else if(c < 0x20) sb.append(String.format("\\u%04x", (int)c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String number(double x) {
+		if(Double.isNaN(x) || Double.isInfinite(x)) return "null";
+		if(x == Math.rint(x) && Math.abs(x) < 1e15) return Long.toString((long)x);
+		return Double.toString(x);
+	}
+
+	private static String value(Object v) {
+		if(v instanceof Number) return number(((Number)v).doubleValue());
+		if(v instanceof Boolean) return v.toString();
+		return quote(String.valueOf(v));
+	}
+
+	private static double perSecond(long count, double seconds) {
+		return seconds > 0 ? count / seconds : 0;
+	}
+
+	public void write(String fileName) throws IOException {
+		double total = (System.nanoTime() - startTime) / 1e9;
+		long allocated = allocatedBytes();
+		double mb = 1024.0 * 1024.0;
+
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		out.println("{");
+		out.println("  \"program\": " + quote(program) + ",");
+		for(Map.Entry<String, Object> e : info.entrySet())
+			out.println("  " + quote(e.getKey()) + ": " + value(e.getValue()) + ",");
+		out.println("  \"nodes\": " + numNodes + ",");
+		out.println("  \"edges\": " + numEdges + ",");
+		out.println("  \"totalSeconds\": " + number(total) + ",");
+		out.println("  \"nodesPerSecond\": " + number(perSecond(numNodes, total)) + ",");
+		out.println("  \"edgesPerSecond\": " + number(perSecond(numEdges, total)) + ",");
+		if(allocated >= 0 && startAllocated >= 0) {
+			double allocMB = (allocated - startAllocated) / mb;
+			out.println("  \"allocatedMB\": " + number(allocMB) + ",");
+			out.println("  \"allocationRateMBPerSecond\": "
+					+ number(total > 0 ? allocMB / total : 0) + ",");
+		}
+		out.println("  \"peakHeapMB\": " + number(peakHeapBytes() / mb) + ",");
+
+		out.println("  \"counters\": {");
+		int k = 0;
+		for(Map.Entry<String, Double> e : counters.entrySet())
+			out.println("    " + quote(e.getKey()) + ": " + number(e.getValue())
+					+ (++k < counters.size() ? "," : ""));
+		out.println("  },");
+
+		out.println("  \"phases\": [");
+		k = 0;
+		for(Phase p : phases.values()) {
+			StringBuilder sb = new StringBuilder("    {");
+			sb.append("\"name\": ").append(quote(p.name));
+			sb.append(", \"seconds\": ").append(number(p.seconds));
+			sb.append(", \"nodesPerSecond\": ").append(number(perSecond(numNodes, p.seconds)));
+			sb.append(", \"edgesPerSecond\": ").append(number(perSecond(numEdges, p.seconds)));
+			if(allocated >= 0)
+				sb.append(", \"allocatedMB\": ").append(number(p.allocated / mb));
+			sb.append(++k < phases.size() ? "}," : "}");
+			out.println(sb);
+		}
+		out.println("  ]");
+		out.println("}");
+		out.close();
+	}
+}
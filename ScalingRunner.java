@@ -0,0 +1,215 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+
+/**
+ * Records how GenerateFeatures and CalculateFeatures scale with graph
+ * size. For each node count a synthetic graph is written with
+ * GraphGenerator, GenerateFeatures is run on it, and CalculateFeatures is
+ * run with the feature names GenerateFeatures found. Each run gets a
+ * fresh child JVM so static state and JIT or heap history do not carry
+ * over between sizes, and so a run that exhausts the heap is recorded as
+ * a failure instead of ending the sweep.
+ *
+ * One line per run is appended to the report: model, nodes, edges (as
+ * written to the edge file), stage, wall-clock seconds, peak heap in MB
+ * (summed over the heap memory pools), and ok or the failure.
+ *
+ * Command line arguments (all optional, in any order):
+ * model=M: rmat (default), ba, er or chunglu
+ * nodes=N1,N2,...: graph sizes (default 1000,10000,100000)
+ * degree=D: edges per node (default 8)
+ * seed=S: generator seed (default 1)
+ * directed: generate directed graphs
+ * maxDist=K, binSize=B: ReFeX parameters (default 0 and 0.5)
+ * xmx=SIZE: child JVM heap, e.g. 4g (default: JVM default)
+ * dir=DIR: directory for graphs and features (default: a temp directory)
+ * report=FILE: report file (default scaling-report.csv)
+ */
+public class ScalingRunner {
+
+	static class Result {
+		double seconds;
+		double peakHeapMB;
+		String status = "ok";
+	}
+
+	/*
+	 * Runs mainClass with the given arguments in a child JVM whose output
+	 * goes to logFile.
+	 */
+	static Result runChild(String xmx, File logFile, String mainClass,
+			String... args) throws IOException, InterruptedException {
+		File resultFile = File.createTempFile("refex-scaling", ".txt");
+		resultFile.deleteOnExit();
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		if(xmx != null) cmd.add("-Xmx" + xmx);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add("ScalingRunner");
+		cmd.add("--child");
+		cmd.add(resultFile.getPath());
+		cmd.add(mainClass);
+		cmd.addAll(Arrays.asList(args));
+
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(logFile);
+		int exit = pb.start().waitFor();
+
+		Result result = new Result();
+		BufferedReader reader = new BufferedReader(new FileReader(resultFile));
+		String line = reader.readLine();
+		reader.close();
+		resultFile.delete();
+		if(line == null) {
+			result.status = "exit " + exit + " (see " + logFile + ")";
+			return result;
+		}
+		String[] fields = line.split(",", 3);
+		result.seconds = Double.parseDouble(fields[0]);
+		result.peakHeapMB = Double.parseDouble(fields[1]);
+		result.status = fields[2];
+		return result;
+	}
+
+	/*
+	 * Child side: runs the main method, then writes seconds,peakHeapMB,status
+	 * to the result file.
+	 */
+	static void child(String resultFile, String mainClass, String[] args)
+			throws Exception {
+		Method main = Class.forName(mainClass).getMethod("main", String[].class);
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				pools.add(pool);
+			}
+		}
+
+		String status = "ok";
+		long start = System.nanoTime();
+		try {
+			main.invoke(null, (Object)args);
+		}
+		catch(InvocationTargetException e) {
+			status = e.getCause().toString().replace(',', ';');
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long peak = 0;
+		for(MemoryPoolMXBean pool : pools)
+			peak += pool.getPeakUsage().getUsed();
+
+		PrintStream out = new PrintStream(new FileOutputStream(resultFile));
+		out.println(seconds + "," + peak / (1024.0 * 1024.0) + "," + status);
+		out.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Entry point for the scaling sweep.
+	 *
+	 * @param args = [model=M] [nodes=...] [degree=D] [seed=S] [directed] [maxDist=K] [binSize=B] [xmx=SIZE] [dir=DIR] [report=FILE]
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0 && args[0].equals("--child")) {
+			child(args[1], args[2], Arrays.copyOfRange(args, 3, args.length));
+			return;
+		}
+
+		GraphGenerator.Model model = GraphGenerator.Model.RMAT;
+		String[] nodes = {"1000", "10000", "100000"};
+		double degree = 8;
+		long seed = 1;
+		boolean directed = false;
+		String maxDist = "0", binSize = "0.5";
+		String xmx = null, dirName = null, reportFile = "scaling-report.csv";
+		try {
+			for(String arg : args) {
+				if(arg.startsWith("model=")) model = GraphGenerator.Model.valueOf(arg.substring(6).toUpperCase());
+				else if(arg.startsWith("nodes=")) nodes = arg.substring(6).split(",");
+				else if(arg.startsWith("degree=")) degree = Double.parseDouble(arg.substring(7));
+				else if(arg.startsWith("seed=")) seed = Long.parseLong(arg.substring(5));
+				else if(arg.equals("directed")) directed = true;
+				else if(arg.startsWith("maxDist=")) maxDist = "" + Integer.parseInt(arg.substring(8));
+				else if(arg.startsWith("binSize=")) binSize = "" + Double.parseDouble(arg.substring(8));
+				else if(arg.startsWith("xmx=")) xmx = arg.substring(4);
+				else if(arg.startsWith("dir=")) dirName = arg.substring(4);
+				else if(arg.startsWith("report=")) reportFile = arg.substring(7);
+				else throw new IllegalArgumentException(arg);
+			}
+			for(String n : nodes) Integer.parseInt(n);
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java ScalingRunner [model=rmat|ba|er|chunglu] " +
+					"[nodes=N1,N2] [degree=D] [seed=S] [directed] [maxDist=K] " +
+					"[binSize=B] [xmx=SIZE] [dir=DIR] [report=FILE]");
+			return;
+		}
+
+		File dir;
+		if(dirName != null) {
+			dir = new File(dirName);
+			dir.mkdirs();
+		}
+		else {
+			dir = File.createTempFile("refex-scaling", "");
+			dir.delete();
+			dir.mkdirs();
+		}
+
+		boolean newReport = !new File(reportFile).exists();
+		PrintStream report = new PrintStream(new FileOutputStream(reportFile, true), true);
+		if(newReport)
+			report.println("model,nodes,edges,stage,seconds,peakHeapMB,status");
+
+		for(String n : nodes) {
+			int numNodes = Integer.parseInt(n);
+			long numEdges = (long)(numNodes * degree / (directed ? 1 : 2));
+			String base = new File(dir, model.toString().toLowerCase() + "-" + n).getPath();
+			String graphFile = base + ".csv";
+
+			GraphGenerator gen = new GraphGenerator(model, numNodes, numEdges, seed);
+			gen.directed = directed;
+			GraphGenerator.CsvSink sink = new GraphGenerator.CsvSink(graphFile);
+			try {
+				gen.generate(sink);
+			}
+			finally {
+				sink.close();
+			}
+			System.out.println(model + " nodes=" + n + " edges=" + gen.emitted);
+
+			String prefix = model + "," + n + "," + gen.emitted + ",";
+			Result gf = runChild(xmx, new File(base + "-generate.log"),
+					"GenerateFeatures", graphFile, maxDist, binSize, base);
+			report.println(prefix + String.format("GenerateFeatures,%.3f,%.1f,%s",
+					gf.seconds, gf.peakHeapMB, gf.status));
+			System.out.println(String.format("  GenerateFeatures  %10.3f s %10.1f MB  %s",
+					gf.seconds, gf.peakHeapMB, gf.status));
+			if(!gf.status.equals("ok")) continue;
+
+			Result cf = runChild(xmx, new File(base + "-calculate.log"),
+					"CalculateFeatures", graphFile, base + "-featureNames.csv",
+					binSize, base + "-fixed");
+			report.println(prefix + String.format("CalculateFeatures,%.3f,%.1f,%s",
+					cf.seconds, cf.peakHeapMB, cf.status));
+			System.out.println(String.format("  CalculateFeatures %10.3f s %10.1f MB  %s",
+					cf.seconds, cf.peakHeapMB, cf.status));
+		}
+		report.close();
+	}
+}
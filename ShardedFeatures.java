@@ -0,0 +1,938 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.text.*;
+import java.util.*;
+
+
+/**
+ * Out-of-core version of CalculateFeatures for graphs whose
+ * AttributedGraph does not fit in the heap. Command line arguments:
+ *
+ * graphFile: csv format with source,destination,weight records
+ * featureFile: one line, comma-separated feature names (generated by
+ *              GenerateFeatures.java)
+ * binSize: same as GenerateFeatures.java
+ * numShards: number of node shards
+ * outputFileBase: base string for output files
+ * workDir: optional directory for the spilled files (default
+ *          outputFileBase-shards)
+ * workers=N: optional number of worker JVMs (default 1, no workers)
+ * xmx=SIZE: optional maximum heap of each worker
+ *
+ * The edge list is first rewritten as binary records of dense node
+ * indices, numbering the node IDs by an external sort. Nodes are split
+ * into numShards contiguous index ranges, and the records are bucketed
+ * once: each shard gets the edges touching its own nodes and a halo file
+ * of the other edges touching their neighbors. For each iteration every
+ * shard is loaded in turn from those two files as an AttributedGraph
+ * holding all links of its own nodes and of their neighbors: the level-1
+ * egonets of the shard's nodes, plus the 2-hop halo whose attribute
+ * values the external edge counts sum. Features are computed for the
+ * shard's own nodes only and written to one MappedColumn per feature.
+ *
+ * Heap use is bounded by the largest shard graph only when
+ * -Drefex.approxBins=true: the sketch bins each column straight from its
+ * mapping. Exact binning copies the column being binned onto the heap
+ * and sorts it, 8 bytes per node plus the sort.
+ *
+ * With workers=N the shards are divided among N child JVMs on this
+ * host, each with its own heap. Workers read the shard edge files and
+ * map the column files, write their own nodes' rows in place, and exit;
+ * this process keeps the binning and pruning.
+ *
+ * Features are the same as CalculateFeatures computes, apart from row
+ * order (rows follow the sorted node IDs here).
+ */
+public class ShardedFeatures {
+
+	protected static final int MAX_ITERATIONS = 100;
+	// bytes of an edge file mapped at a time, a whole number of records
+	private static final long SCAN_CHUNK = 48L << 26;
+	// bytes of a bucketed edge record: src, dst, weight, edge number
+	private static final int RECORD = 24;
+	// node ID occurrences sorted on the heap at a time while splitting
+	private static final int RUN_SIZE = 1 << 21;
+	// sorted runs merged at a time
+	private static final int FAN_IN = 64;
+
+	protected static RunMetrics metrics;
+
+	private final int numShards;
+	private final File dir;
+	private final File edgeFile;
+	private final File idFile;
+	private final double binSize;
+	private int numNodes = 0;
+	/** worker processes for the shards (1 computes them in this JVM) */
+	int numWorkers = 1;
+	/** maximum heap of each worker, e.g. "2g", or null for the default */
+	String workerXmx = null;
+	private long unweighted = 0;
+	private long weighted = 0;
+	private final Map<String, MappedColumn> columns = new HashMap<String, MappedColumn>();
+
+	public ShardedFeatures(int numShards, File dir, double binSize) {
+		this.numShards = numShards;
+		this.dir = dir;
+		this.binSize = binSize;
+		edgeFile = new File(dir, "edges.bin");
+		idFile = new File(dir, "nodeIDs.txt");
+	}
+
+	/*
+	 * Rewrites the csv edge list as (int src, int dst, double weight)
+	 * records of dense node indices, and the node IDs in index order, then
+	 * buckets the records by shard (see bucket()). Nodes are numbered in
+	 * sorted ID order by an external sort of the endpoint occurrences, so
+	 * no map of all node IDs is held: the heap holds one run of RUN_SIZE
+	 * occurrences while sorting and FAN_IN open runs while merging.
+	 */
+	void split(String graphFile) throws IOException {
+		// sorted runs of (ID, occurrence), where occurrence is 2 * edge for
+		// the source and 2 * edge + 1 for the destination
+		File weightFile = new File(dir, "weights.bin");
+		DataOutputStream weights = stream(weightFile);
+		List<File> runs = new ArrayList<File>();
+		String[] runIds = new String[RUN_SIZE];
+		long[] runOcc = new long[RUN_SIZE];
+		int n = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(graphFile));
+		try {
+			String curLine;
+			while((curLine = reader.readLine()) != null) {
+				String[] fields = curLine.split(",");
+				for(int e = 0; e < 2; e++) {
+					runIds[n] = fields[e];
+					runOcc[n++] = 2 * unweighted + e;
+				}
+				if(n == RUN_SIZE) {
+					runs.add(writeRun(runIds, runOcc, n, runs.size()));
+					n = 0;
+				}
+				double weight = Double.valueOf(fields[2]);
+				unweighted++;
+				weighted += weight;
+				weights.writeDouble(weight);
+			}
+			if(n > 0) runs.add(writeRun(runIds, runOcc, n, runs.size()));
+		}
+		finally {
+			reader.close();
+			weights.close();
+		}
+		runIds = null;
+		runOcc = null;
+
+		// number the IDs in sorted order and record each occurrence's index
+		MappedColumn ends = new MappedColumn(new File(dir, "ends.col"), 2 * unweighted);
+		PrintStream ids = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(idFile)));
+		Run merged = merge(runs);
+		try {
+			String last = null;
+			while(merged.next()) {
+				if(!merged.id.equals(last)) {
+					last = merged.id;
+					numNodes++;
+					ids.println(last);
+				}
+				ends.set(merged.occ, numNodes - 1);
+			}
+		}
+		finally {
+			merged.close();
+			ids.close();
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(weightFile), 1 << 16));
+		DataOutputStream out = stream(edgeFile);
+		try {
+			for(long k = 0; k < unweighted; k++) {
+				out.writeInt((int)ends.get(2 * k));
+				out.writeInt((int)ends.get(2 * k + 1));
+				out.writeDouble(in.readDouble());
+			}
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		ends.delete();
+		weightFile.delete();
+
+		bucket();
+		edgeFile.delete();
+	}
+
+	private static DataOutputStream stream(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+	}
+
+	/*
+	 * Sorts the first n (ID, occurrence) pairs by ID and writes them to a
+	 * run file.
+	 */
+	private File writeRun(final String[] ids, long[] occ, int n, int number) throws IOException {
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return ids[a].compareTo(ids[b]);
+			}
+		});
+		File file = new File(dir, "run-" + number + ".bin");
+		DataOutputStream out = stream(file);
+		try {
+			for(int i : order) {
+				out.writeUTF(ids[i]);
+				out.writeLong(occ[i]);
+			}
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/*
+	 * A sorted stream of (ID, occurrence) pairs: a run file, or the merge
+	 * of several streams. Run files are deleted once read.
+	 */
+	private static abstract class Run {
+		String id;
+		long occ;
+
+		/** Moves to the next pair, returning false at the end. */
+		abstract boolean next() throws IOException;
+
+		abstract void close() throws IOException;
+	}
+
+	private static class RunFile extends Run {
+		private final File file;
+		private final DataInputStream in;
+
+		RunFile(File file) throws IOException {
+			this.file = file;
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+		}
+
+		boolean next() throws IOException {
+			try {
+				id = in.readUTF();
+			}
+			catch(EOFException e) {
+				return false;
+			}
+			occ = in.readLong();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+			file.delete();
+		}
+	}
+
+	private static class MergedRun extends Run {
+		private final List<Run> runs;
+		private final PriorityQueue<Run> heads = new PriorityQueue<Run>(11, new Comparator<Run>() {
+			public int compare(Run a, Run b) {
+				int c = a.id.compareTo(b.id);
+				return c != 0 ? c : Long.compare(a.occ, b.occ);
+			}
+		});
+
+		MergedRun(List<Run> runs) throws IOException {
+			this.runs = runs;
+			for(Run run : runs)
+				if(run.next()) heads.add(run);
+		}
+
+		boolean next() throws IOException {
+			Run run = heads.poll();
+			if(run == null) return false;
+			id = run.id;
+			occ = run.occ;
+			if(run.next()) heads.add(run);
+			return true;
+		}
+
+		void close() throws IOException {
+			for(Run run : runs) run.close();
+		}
+	}
+
+	/*
+	 * Merges the run files, first combining them FAN_IN at a time into
+	 * longer runs while there are more than FAN_IN.
+	 */
+	private Run merge(List<File> files) throws IOException {
+		int number = files.size();
+		while(files.size() > FAN_IN) {
+			List<File> longer = new ArrayList<File>();
+			for(int i = 0; i < files.size(); i += FAN_IN) {
+				Run merged = open(files.subList(i, Math.min(i + FAN_IN, files.size())));
+				File file = new File(dir, "run-" + (number++) + ".bin");
+				DataOutputStream out = stream(file);
+				try {
+					while(merged.next()) {
+						out.writeUTF(merged.id);
+						out.writeLong(merged.occ);
+					}
+				}
+				finally {
+					out.close();
+					merged.close();
+				}
+				longer.add(file);
+			}
+			files = longer;
+		}
+		return open(files);
+	}
+
+	private static Run open(List<File> files) throws IOException {
+		List<Run> runs = new ArrayList<Run>();
+		for(File file : files)
+			runs.add(new RunFile(file));
+		return new MergedRun(runs);
+	}
+
+	/*
+	 * Passes every edge of the binary edge file to sink. The file is
+	 * mapped read-only a chunk at a time.
+	 */
+	void scan(GraphGenerator.EdgeSink sink) throws IOException {
+		FileChannel channel = new FileInputStream(edgeFile).getChannel();
+		try {
+			long size = channel.size();
+			if(size % 16 != 0)
+				throw new IOException(edgeFile + ": truncated record");
+			for(long start = 0; start < size; start += SCAN_CHUNK) {
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, Math.min(SCAN_CHUNK, size - start));
+				while(buf.remaining() >= 16)
+					sink.edge(buf.getInt(), buf.getInt(), buf.getDouble());
+			}
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private int shardStart(int s) {
+		return (int)((long)numNodes * s / numShards);
+	}
+
+	/* The shard holding node, the inverse of shardStart. */
+	private int shardOf(int node) {
+		int s = (int)((long)node * numShards / numNodes);
+		while(shardStart(s + 1) <= node) s++;
+		while(shardStart(s) > node) s--;
+		return s;
+	}
+
+	private File ownFile(int s) {
+		return new File(dir, "edges-" + s + ".bin");
+	}
+
+	private File haloFile(int s) {
+		return new File(dir, "halo-" + s + ".bin");
+	}
+
+	private File requestFile(int s) {
+		return new File(dir, "requests-" + s + ".bin");
+	}
+
+	private static void writeEdge(DataOutputStream out, long k, int src, int dst,
+			double weight) throws IOException {
+		out.writeInt(src);
+		out.writeInt(dst);
+		out.writeDouble(weight);
+		out.writeLong(k);
+	}
+
+	/*
+	 * Writes, once per run, the edges each shard needs as RECORD-byte
+	 * (int src, int dst, double weight, long edge number) records:
+	 * edges-S.bin holds the edges touching shard S's nodes, and halo-S.bin
+	 * the other edges touching their neighbors. A shard's neighbors in
+	 * other shards are found from its own edges and sent as requests to
+	 * the shard holding them, whose edge bucket then answers all requests
+	 * in one pass. Each shard thereafter reads only its own 2-hop
+	 * neighborhood.
+	 */
+	private void bucket() throws IOException {
+		final DataOutputStream[] own = new DataOutputStream[numShards];
+		final DataOutputStream[] requests = new DataOutputStream[numShards];
+		for(int s = 0; s < numShards; s++) {
+			own[s] = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(ownFile(s)), 1 << 13));
+			requests[s] = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(requestFile(s)), 1 << 13));
+		}
+		try {
+			scan(new GraphGenerator.EdgeSink() {
+				long k = 0;
+				public void edge(int src, int dst, double weight) throws IOException {
+					int a = shardOf(src), b = shardOf(dst);
+					writeEdge(own[a], k, src, dst, weight);
+					if(a != b) {
+						writeEdge(own[b], k, src, dst, weight);
+						// dst is a neighbor of shard a, src of shard b
+						requests[b].writeInt(dst);
+						requests[b].writeInt(a);
+						requests[a].writeInt(src);
+						requests[a].writeInt(b);
+					}
+					k++;
+				}
+			});
+		}
+		finally {
+			for(int s = 0; s < numShards; s++) {
+				own[s].close();
+				requests[s].close();
+			}
+		}
+
+		DataOutputStream[] halo = new DataOutputStream[numShards];
+		for(int s = 0; s < numShards; s++)
+			halo[s] = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(haloFile(s)), 1 << 13));
+		try {
+			for(int t = 0; t < numShards; t++) {
+				// the shards asking for each of shard t's nodes
+				Map<Integer, Set<Integer>> askers = new HashMap<Integer, Set<Integer>>();
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(requestFile(t)), 1 << 16));
+				try {
+					for(long r = requestFile(t).length() / 8; r > 0; r--) {
+						int node = in.readInt();
+						Set<Integer> set = askers.get(node);
+						if(set == null) {
+							set = new HashSet<Integer>();
+							askers.put(node, set);
+						}
+						set.add(in.readInt());
+					}
+				}
+				finally {
+					in.close();
+				}
+				requestFile(t).delete();
+				if(askers.isEmpty()) continue;
+
+				in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(ownFile(t)), 1 << 16));
+				Set<Integer> to = new HashSet<Integer>();
+				try {
+					for(long r = ownFile(t).length() / RECORD; r > 0; r--) {
+						int src = in.readInt(), dst = in.readInt();
+						double weight = in.readDouble();
+						long k = in.readLong();
+						int a = shardOf(src), b = shardOf(dst);
+						to.clear();
+						if(a == t && askers.containsKey(src)) to.addAll(askers.get(src));
+						if(b == t && askers.containsKey(dst)) to.addAll(askers.get(dst));
+						for(int s : to) {
+							// edges touching shard s are already in its own bucket
+							if(s != a && s != b)
+								writeEdge(halo[s], k, src, dst, weight);
+						}
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+		}
+		finally {
+			for(int s = 0; s < numShards; s++)
+				halo[s].close();
+		}
+	}
+
+	/*
+	 * Reads shard s's own and halo edges and adds them to a new graph in
+	 * edge file order, each edge once: a halo edge joining two neighbors
+	 * held by different shards arrives from both.
+	 */
+	private AttributedGraph loadShard(int s) throws IOException {
+		long numOwn = ownFile(s).length() / RECORD;
+		int count = (int)(numOwn + haloFile(s).length() / RECORD);
+		int[] srcs = new int[count], dsts = new int[count];
+		double[] weights = new double[count];
+		final long[] ks = new long[count];
+		int i = 0;
+		for(File file : new File[]{ownFile(s), haloFile(s)}) {
+			FileChannel channel = new FileInputStream(file).getChannel();
+			try {
+				long size = channel.size();
+				for(long start = 0; start < size; start += SCAN_CHUNK) {
+					ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+							start, Math.min(SCAN_CHUNK, size - start));
+					while(buf.remaining() >= RECORD) {
+						srcs[i] = buf.getInt();
+						dsts[i] = buf.getInt();
+						weights[i] = buf.getDouble();
+						ks[i++] = buf.getLong();
+					}
+				}
+			}
+			finally {
+				channel.close();
+			}
+		}
+
+		Integer[] order = new Integer[count];
+		for(int j = 0; j < count; j++) order[j] = j;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(ks[a], ks[b]);
+			}
+		});
+		AttributedGraph graph = new AttributedGraph();
+		long last = -1;
+		for(int j : order) {
+			if(ks[j] == last) continue;
+			last = ks[j];
+			Map<String,Object> attrs = new HashMap<String,Object>();
+			attrs.put("wgt", weights[j]);
+			graph.addLink(srcs[j], dsts[j], attrs);
+		}
+		return graph;
+	}
+
+	MappedColumn column(String name) throws IOException {
+		MappedColumn col = columns.get(name);
+		if(col == null) {
+			col = new MappedColumn(new File(dir, name + ".col"), numNodes);
+			columns.put(name, col);
+		}
+		return col;
+	}
+
+	void drop(String name) {
+		MappedColumn col = columns.remove(name);
+		if(col != null) col.delete();
+	}
+
+	/*
+	 * Computes the next features (the primitives if attrs is null) for
+	 * every shard and returns their names.
+	 */
+	String[] computeShards(String[] attrs) throws IOException {
+		if(numWorkers > 1)
+			return runWorkers(attrs);
+		return computeShards(attrs, 0, numShards);
+	}
+
+	/*
+	 * Computes shards from .. to-1 in this JVM.
+	 */
+	String[] computeShards(String[] attrs, int from, int to) throws IOException {
+		String[] names = null;
+		for(int s = from; s < to; s++) {
+			final int lo = shardStart(s), hi = shardStart(s+1);
+			if(lo == hi) continue;
+
+			AttributedGraph graph = loadShard(s);
+
+			List<AttributedNode> own = new ArrayList<AttributedNode>();
+			for(AttributedNode node : graph.getNodes()) {
+				if(attrs != null)
+					for(String attr : attrs)
+						node.setAttr(attr, columns.get(attr).get(node.id));
+				if(node.id >= lo && node.id < hi)
+					own.add(node);
+			}
+
+			names = RankedRoleFinder.calculateAttrs(graph, own, attrs);
+			for(String name : names) {
+				MappedColumn col = column(name);
+				for(AttributedNode node : own)
+					col.set(node.id, (Double)node.getAttr(name));
+			}
+			System.out.println("  shard " + s + ": " + own.size() + " nodes, "
+					+ graph.getNumNodes() + " with halo, " + graph.getNumLinks() + " links");
+		}
+		return names;
+	}
+
+	/*
+	 * Splits the shards among numWorkers child JVMs (see worker()) and
+	 * waits for them. Each worker reads its shards' edge files, reads the
+	 * input columns and writes the rows of its own shards into the shared
+	 * output column files; the names of the computed features come back
+	 * in a file.
+	 */
+	String[] runWorkers(String[] attrs) throws IOException {
+		List<Process> procs = new ArrayList<Process>();
+		List<File> logs = new ArrayList<File>();
+		List<File> nameFiles = new ArrayList<File>();
+		for(int w = 0; w < numWorkers; w++) {
+			int from = (int)((long)numShards * w / numWorkers);
+			int to = (int)((long)numShards * (w+1) / numWorkers);
+			if(from == to) continue;
+			File nameFile = new File(dir, "names-" + w + ".txt");
+			File log = new File(dir, "worker-" + w + ".log");
+			List<String> cmd = new ArrayList<String>();
+			cmd.add(System.getProperty("java.home") + File.separator + "bin"
+					+ File.separator + "java");
+			if(workerXmx != null) cmd.add("-Xmx" + workerXmx);
+			for(String prop : new String[]{"refex.threads", "refex.dedup",
+					"refex.order", "refex.sortedAdjacency",
+					"refex.directional"}) {
+				if(System.getProperty(prop) != null)
+					cmd.add("-D" + prop + "=" + System.getProperty(prop));
+			}
+			cmd.add("-cp");
+			cmd.add(System.getProperty("java.class.path"));
+			cmd.add("ShardedFeatures");
+			cmd.add("--worker");
+			cmd.add(dir.getPath());
+			cmd.add(Integer.toString(numNodes));
+			cmd.add(Integer.toString(numShards));
+			cmd.add(Integer.toString(from));
+			cmd.add(Integer.toString(to));
+			cmd.add(Double.toString(binSize));
+			cmd.add(nameFile.getPath());
+			if(attrs != null) cmd.addAll(Arrays.asList(attrs));
+
+			ProcessBuilder pb = new ProcessBuilder(cmd);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(log);
+			procs.add(pb.start());
+			logs.add(log);
+			nameFiles.add(nameFile);
+		}
+
+		String[] names = null;
+		IOException failure = null;
+		for(int w = 0; w < procs.size(); w++) {
+			int exit;
+			try {
+				exit = procs.get(w).waitFor();
+			}
+			catch(InterruptedException e) {
+				for(Process p : procs) p.destroy();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted waiting for workers");
+			}
+			BufferedReader reader = new BufferedReader(new FileReader(logs.get(w)));
+			String line;
+			while((line = reader.readLine()) != null)
+				System.out.println(line);
+			reader.close();
+			logs.get(w).delete();
+			if(exit != 0) {
+				if(failure == null)
+					failure = new IOException("worker " + w + " exited with status " + exit);
+				continue;
+			}
+			reader = new BufferedReader(new FileReader(nameFiles.get(w)));
+			line = reader.readLine();
+			reader.close();
+			nameFiles.get(w).delete();
+			if(line != null && line.length() > 0) names = line.split(",");
+		}
+		if(failure != null) throw failure;
+		for(String name : names)
+			column(name);
+		return names;
+	}
+
+	/*
+	 * Worker side of runWorkers: computes shards from .. to-1 and writes
+	 * the feature names to nameFile.
+	 */
+	static void worker(String[] args) throws IOException {
+		File dir = new File(args[0]);
+		int numNodes = Integer.parseInt(args[1]);
+		ShardedFeatures sharded = new ShardedFeatures(Integer.parseInt(args[2]), dir,
+				Double.parseDouble(args[5]));
+		sharded.numNodes = numNodes;
+		String[] attrs = null;
+		if(args.length > 7) {
+			attrs = Arrays.copyOfRange(args, 7, args.length);
+			for(String attr : attrs)
+				sharded.column(attr);
+		}
+		String[] names = sharded.computeShards(attrs,
+				Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+		PrintStream out = new PrintStream(args[6]);
+		for(int i = 0; names != null && i < names.length; i++)
+			out.print((i > 0 ? "," : "") + names[i]);
+		out.println();
+		out.close();
+	}
+
+	/*
+	 * Replaces the values of column name with their vertical bins.
+	 */
+	void bin(String name) throws IOException {
+		MappedColumn col = columns.get(name);
+		if(QuantileSketch.ENABLED) {
+			sketchBin(col, col);
+			return;
+		}
+		double[] values = col.toArray();
+		RankedRoleFinder.binColumn(values, binSize);
+		col.copyFrom(values);
+	}
+
+	/*
+	 * Bins column name into a new column "wgt-" + name, as
+	 * RankedRoleFinder.verticalBin does, and returns the new name.
+	 */
+	String binCopy(String name) throws IOException {
+		if(QuantileSketch.ENABLED) {
+			sketchBin(columns.get(name), column("wgt-" + name));
+			return "wgt-" + name;
+		}
+		double[] values = columns.get(name).toArray();
+		RankedRoleFinder.binColumn(values, binSize);
+		column("wgt-" + name).copyFrom(values);
+		return "wgt-" + name;
+	}
+
+	/*
+	 * Bins src into dst from a sketch of src read straight from its
+	 * mapping, so the column is never copied onto the heap or sorted.
+	 */
+	private void sketchBin(final MappedColumn src, MappedColumn dst) {
+		BinBoundaries bins = RankedRoleFinder.sketchBins(RankedRoleFinder.sketch(src.length,
+				new RankedRoleFinder.Column() {
+			public double get(long i) { return src.get(i); }
+		}), binSize);
+		for(long i = 0; i < src.length; i++)
+			dst.set(i, bins.bin(src.get(i)));
+	}
+
+	/*
+	 * Same iteration and pruning-by-name scheme as
+	 * CalculateFeatures.calculateAttributes.
+	 */
+	void calculateAttributes(String graphFile, List<String> featureNames) throws IOException {
+		Set<String> compNameSet = new HashSet<String>(featureNames);
+		Set<String> validPostfix = new HashSet<String>();
+		for(String s : featureNames) {
+			if(s.indexOf('-') > -1)
+				validPostfix.add("wgt"+s.substring(s.indexOf('-')));
+		}
+
+		metrics.begin("split");
+		split(graphFile);
+		metrics.end("split");
+		metrics.numNodes = numNodes;
+		metrics.numEdges = unweighted;
+
+		int j = 0;
+		String phase = "iteration " + j + ": ";
+		System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+				+ ": Iteration " + (j++));
+
+		List<String> allReps = new ArrayList<String>();
+
+		metrics.begin(phase + "egonet");
+		String[] primitives = computeShards(null);
+		metrics.end(phase + "egonet");
+
+		metrics.begin(phase + "binning");
+		for(String attr : primitives)
+			bin(attr);
+		Set<String> reps = new HashSet<String>();
+		for(String s : primitives) {
+			if(featureNames.contains(s)) reps.add(s);
+			else drop(s);
+		}
+		List<String> attrList = new ArrayList<String>();
+		for(String rep : reps) {
+			allReps.add(rep);
+			attrList.add(binCopy(rep));
+		}
+		metrics.end(phase + "binning");
+		String[] attrs = attrList.toArray(new String[attrList.size()]);
+
+		int numIters = 1;
+		while(attrs.length > 0 && numIters++ < MAX_ITERATIONS) {
+			phase = "iteration " + j + ": ";
+			System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+					+ ": Iteration " + (j++));
+
+			metrics.begin(phase + "egonet");
+			String[] features = computeShards(attrs);
+			metrics.end(phase + "egonet");
+
+			metrics.begin(phase + "binning");
+			for(String attr : features)
+				bin(attr);
+
+			reps = new HashSet<String>();
+			for(String s : features) {
+				if(compNameSet.contains(s)) reps.add(s);
+				else if(!allReps.contains(s)) drop(s);
+			}
+			reps.addAll(allReps);
+
+			List<String> postfix = new ArrayList<String>();
+			for(String rep : reps) {
+				if(allReps.contains(rep)) continue;
+				allReps.add(rep);
+				String post = binCopy(rep);
+				if(validPostfix.contains(post)) postfix.add(post);
+				else drop(post);
+			}
+			// this iteration's inputs are no longer needed
+			for(String attr : attrs) drop(attr);
+			metrics.end(phase + "binning");
+
+			attrs = postfix.toArray(new String[postfix.size()]);
+		}
+		for(String attr : attrs) drop(attr);
+
+		System.out.println("Graph: " + graphFile);
+		System.out.println("Nodes: " + numNodes);
+		System.out.println("Edges: " + unweighted);
+		System.out.println("Edge Weight: " + weighted);
+
+		metrics.put("graph", graphFile);
+		metrics.put("binSize", binSize);
+		metrics.put("shards", numShards);
+		metrics.put("edgeWeight", weighted);
+		metrics.put("iterations", j);
+		metrics.put("features", featureNames.size());
+		metrics.setCounter("dedupedNodes", RankedRoleFinder.dedupedNodes);
+	}
+
+	/*
+	 * One line per node, the node ID followed by its values of
+	 * featureNames, as FeatureMatrix.write.
+	 */
+	void writeFeatures(List<String> featureNames, String fileName) throws IOException {
+		MappedColumn[] cols = new MappedColumn[featureNames.size()];
+		for(int f = 0; f < cols.length; f++)
+			cols[f] = columns.get(featureNames.get(f));
+		BufferedReader ids = new BufferedReader(new FileReader(idFile));
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < numNodes; i++) {
+			sb.setLength(0);
+			sb.append(ids.readLine());
+			for(MappedColumn col : cols)
+				sb.append(',').append(col.get(i));
+			out.println(sb);
+		}
+		out.close();
+		ids.close();
+	}
+
+	/** Deletes the spilled files. */
+	void cleanUp() {
+		for(String name : new ArrayList<String>(columns.keySet()))
+			drop(name);
+		for(int s = 0; s < numShards; s++) {
+			ownFile(s).delete();
+			haloFile(s).delete();
+		}
+		idFile.delete();
+		dir.delete();
+	}
+
+	/**
+	 * @param args =
+	 * 	graphFileName : name of u,v,w .csv file containing edgelist
+	 *  featureFileName : name of .csv file with one line containing feature
+	 *  	names to keep
+	 *  binSize : size of vertical logarithmic bins (usually 0.5)
+	 *  numShards : number of node shards
+	 *  baseOutputFileName : base filename for feature values.
+	 *  workDir : (optional) directory for spilled files
+ *  workers=N : (optional) compute the shards in N worker JVMs
+ *  xmx=SIZE : (optional) maximum heap of each worker
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws IOException, ParseException {
+		if(args.length > 0 && args[0].equals("--worker")) {
+			worker(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		String graphFile = null, featFile = null, baseOut = null;
+		double binSize = -1;
+		int numShards = 0, numWorkers = 1;
+		String workerXmx = null;
+		File dir = null;
+		try {
+			graphFile = args[0];
+			featFile = args[1];
+			binSize = Double.parseDouble(args[2]);
+			numShards = Integer.parseInt(args[3]);
+			baseOut = args[4];
+			for(int i = 5; i < args.length; i++) {
+				if(args[i].startsWith("workers="))
+					numWorkers = Integer.parseInt(args[i].substring(8));
+				else if(args[i].startsWith("xmx="))
+					workerXmx = args[i].substring(4);
+				else
+					dir = new File(args[i]);
+			}
+			if(dir == null) dir = new File(baseOut + "-shards");
+			if(numShards < 1 || numWorkers < 1) throw new IllegalArgumentException();
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java ShardedFeatures " +
+			"graphFile featureFile binSize numShards outputFileBase [workDir] " +
+			"[workers=N] [xmx=SIZE]");
+			return;
+		}
+		dir.mkdirs();
+
+		String outFile = baseOut + "-featureValues.csv";
+		String reportFile = baseOut + "-runReport.json";
+		metrics = new RunMetrics("ShardedFeatures");
+
+		List<String> featureNames = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(featFile));
+		for(String rep : reader.readLine().split(","))
+			featureNames.add(rep);
+		reader.close();
+
+		ShardedFeatures sharded = new ShardedFeatures(numShards, dir, binSize);
+		sharded.numWorkers = numWorkers;
+		sharded.workerXmx = workerXmx;
+		metrics.put("workers", numWorkers);
+		try {
+			sharded.calculateAttributes(graphFile, featureNames);
+			System.out.println();
+			System.out.println(featureNames.size() + " features");
+			System.out.println();
+
+			System.out.println("Feature Values: writing " + outFile);
+			metrics.begin("output");
+			sharded.writeFeatures(featureNames, outFile);
+			metrics.end("output");
+		}
+		finally {
+			sharded.cleanUp();
+		}
+		System.out.println("Run Report: writing " + reportFile);
+		metrics.write(reportFile);
+		System.out.println();
+	}
+}
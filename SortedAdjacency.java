@@ -0,0 +1,468 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * Sorted, array-based adjacency for counting level-0 and level-1
+ * egonets without hash lookups.
+ *
+ * Nodes get dense ids in NodeOrdering.DEFAULT order (decreasing degree
+ * unless refex.order says otherwise). For every node the unique
+ * in-neighbors are kept as a sorted int array (CSR layout) along with
+ * the number of parallel links and the summed edge attributes for each
+ * one; the unique neighbors in either direction are kept the same way
+ * and give the level-1 egonet members directly.
+ *
+ * The within-egonet counts (weu, wet, wea) are the intersections of each
+ * member's in-neighbors with the sorted member array, as in triangle
+ * counting. Each intersection is a linear merge when the two arrays are
+ * of similar length, a galloping search of the shorter array in the
+ * longer one otherwise, and a bitmap probe when the egonet is large
+ * (a hub neighborhood). Every other count follows from per-node totals:
+ * an edge leaving a member is external unless it was counted as
+ * internal, e.g. xedu = sum of unique in-neighbors - weu.
+ *
+ * The counts are the same as Egonet.getCounts with the maps built by
+ * EgonetGenerator.
+ *
+ * The level-1 left and right egonets (the centers with their in- or
+ * out-neighbors) are subsets of the symmetric one, so they are counted
+ * in the same pass: each internal link found by an intersection is
+ * classified for all three egonets with a two-bit-per-node side
+ * bitmap, and each member's totals are added to the egonets it is in.
+ */
+public class SortedAdjacency {
+
+	/** egonets with at least this many members use a bitmap */
+	static final int BITMAP_SIZE = 256;
+	/** merge when the longer array is at most this many times the shorter */
+	static final int MERGE_RATIO = 8;
+
+	final int numNodes;
+	final Map<Long, Integer> denseId = new HashMap<Long, Integer>();
+	final AttributedNode[] nodes;
+
+	// unique in-neighbors: inNbr[inOff[u] .. inOff[u+1]) sorted
+	final int[] inOff, inNbr, inMult;
+	// summed edge attribute per unique in-neighbor, [attr][position]
+	final double[][] inVal;
+	// unique neighbors in either direction
+	final int[] nbrOff, nbr;
+
+	final int[] outUnique, inTotal, outTotal;
+	// per node totals for every attribute, [attr][node]
+	final double[][] inValTotal, outValTotal;
+	// vertex attribute values, [attr][node] (null for edge attributes)
+	final double[][] nodeVal;
+
+	final String[] attrNames;
+	final int numEdgeAttrs;
+
+	private final ThreadLocal<long[]> bitmaps = new ThreadLocal<long[]>();
+	// two bits per node, LEFT and RIGHT, for directed counts
+	private final ThreadLocal<long[]> sideBitmaps = new ThreadLocal<long[]>();
+	private static final int LEFT = 1, RIGHT = 2;
+	// count keys of the symmetric, left and right egonets, as laid out
+	// by Egonet.countKeys
+	final String[][] keys = new String[3][];
+
+	/**
+	 * @param graph graph to index
+	 * @param edgeAttrNames edge attributes to sum (missing values count as 0)
+	 * @param vertAttrNames vertex attributes to sum over neighbors
+	 */
+	public SortedAdjacency(AttributedGraph graph, String[] edgeAttrNames,
+			String[] vertAttrNames) {
+		numNodes = graph.getNumNodes();
+		numEdgeAttrs = edgeAttrNames.length;
+		attrNames = new String[edgeAttrNames.length + vertAttrNames.length];
+		int a = 0;
+		for(String attr : edgeAttrNames) attrNames[a++] = attr;
+		for(String attr : vertAttrNames) attrNames[a++] = attr;
+		String[] prefixes = {"", "l", "r"};
+		for(int e = 0; e < keys.length; e++)
+			keys[e] = Egonet.countKeys(attrNames, prefixes[e]);
+
+		// dense ids in NodeOrdering order
+		nodes = NodeOrdering.order(graph, NodeOrdering.DEFAULT);
+		for(int u = 0; u < numNodes; u++)
+			denseId.put(nodes[u].id, u);
+
+		nodeVal = new double[attrNames.length][];
+		for(a = numEdgeAttrs; a < attrNames.length; a++) {
+			nodeVal[a] = new double[numNodes];
+			for(int u = 0; u < numNodes; u++) {
+				Object x = nodes[u].attrs.get(attrNames[a]);
+				nodeVal[a][u] = x == null ? 0.0 : (Double)x;
+			}
+		}
+
+		inOff = new int[numNodes + 1];
+		nbrOff = new int[numNodes + 1];
+		outUnique = new int[numNodes];
+		inTotal = new int[numNodes];
+		outTotal = new int[numNodes];
+		inValTotal = new double[attrNames.length][numNodes];
+		outValTotal = new double[attrNames.length][numNodes];
+
+		int[][] inIds = new int[numNodes][], outIds = new int[numNodes][];
+		long inPairs = 0, nbrPairs = 0;
+		for(int u = 0; u < numNodes; u++) {
+			inIds[u] = uniqueIds(nodes[u].getInLinks(), true);
+			outIds[u] = uniqueIds(nodes[u].getOutLinks(), false);
+			inPairs += inIds[u].length;
+			nbrPairs += union(inIds[u], outIds[u]).length;
+		}
+		if(nbrPairs > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException(nbrPairs + " neighbor pairs do not fit "
+					+ "in an array; use ShardedFeatures for graphs this large");
+		inNbr = new int[(int)inPairs];
+		inMult = new int[(int)inPairs];
+		inVal = new double[numEdgeAttrs][(int)inPairs];
+		nbr = new int[(int)nbrPairs];
+
+		int pos = 0, npos = 0;
+		for(int u = 0; u < numNodes; u++) {
+			AttributedNode node = nodes[u];
+			int[] in = inIds[u], out = outIds[u];
+			inOff[u] = pos;
+			pos = fill(node.getInLinks(), in, true, pos, u);
+			outUnique[u] = fill(node.getOutLinks(), out, false, 0, u);
+
+			int[] both = union(in, out);
+			nbrOff[u] = npos;
+			System.arraycopy(both, 0, nbr, npos, both.length);
+			npos += both.length;
+			inIds[u] = outIds[u] = null;
+		}
+		inOff[numNodes] = pos;
+		nbrOff[numNodes] = npos;
+	}
+
+	/*
+	 * Sorted dense ids of the distinct link endpoints on the other side.
+	 */
+	private int[] uniqueIds(Set<AttributedLink> links, boolean in) {
+		int[] ids = new int[links.size()];
+		int k = 0;
+		for(AttributedLink link : links)
+			ids[k++] = denseId.get((in ? link.src : link.dst).id);
+		Arrays.sort(ids);
+		int n = 0;
+		for(int i = 0; i < ids.length; i++)
+			if(n == 0 || ids[i] != ids[n-1]) ids[n++] = ids[i];
+		return Arrays.copyOf(ids, n);
+	}
+
+	/*
+	 * Fills totals for node u from its in- or out-links, whose sorted
+	 * unique endpoints are ids, and for in-links the CSR arrays starting
+	 * at pos. Returns the next free position for in-links and the number
+	 * of unique neighbors for out-links.
+	 */
+	private int fill(Set<AttributedLink> links, int[] ids, boolean in, int pos, int u) {
+		int[] mult = new int[ids.length];
+		double[][] vals = new double[numEdgeAttrs][ids.length];
+		for(AttributedLink link : links) {
+			int k = Arrays.binarySearch(ids, denseId.get((in ? link.src : link.dst).id));
+			mult[k]++;
+			for(int a = 0; a < numEdgeAttrs; a++) {
+				Object x = link.attrs.get(attrNames[a]);
+				vals[a][k] += x == null ? 0.0 : (Double)x;
+			}
+		}
+
+		int[] total = in ? inTotal : outTotal;
+		double[][] valTotal = in ? inValTotal : outValTotal;
+		total[u] = links.size();
+		for(int a = 0; a < attrNames.length; a++) {
+			double sum = 0;
+			for(int k = 0; k < ids.length; k++)
+				sum += a < numEdgeAttrs ? vals[a][k] : nodeVal[a][ids[k]];
+			valTotal[a][u] = sum;
+		}
+		if(!in) return ids.length;
+
+		for(int k = 0; k < ids.length; k++) {
+			inNbr[pos + k] = ids[k];
+			inMult[pos + k] = mult[k];
+			for(int a = 0; a < numEdgeAttrs; a++)
+				inVal[a][pos + k] = vals[a][k];
+		}
+		return pos + ids.length;
+	}
+
+	/**
+	 * Sorted dense ids of the members of the level-0 or level-1 egonet
+	 * around the given centers.
+	 */
+	public int[] members(Collection<Long> centers, int level) {
+		int[] ret = null;
+		for(long id : centers) {
+			int c = denseId.get(id);
+			int[] m;
+			if(level == 0) {
+				m = new int[]{c};
+			}
+			else {
+				int lo = nbrOff[c], hi = nbrOff[c+1];
+				m = new int[hi - lo + 1];
+				int k = 0;
+				boolean added = false;
+				for(int i = lo; i < hi; i++) {
+					if(!added && c <= nbr[i]) {
+						if(c < nbr[i]) m[k++] = c;
+						added = true;
+					}
+					m[k++] = nbr[i];
+				}
+				if(!added) m[k++] = c;
+				m = Arrays.copyOf(m, k);
+			}
+			ret = ret == null ? m : union(ret, m);
+		}
+		return ret;
+	}
+
+	/**
+	 * Sorted dense ids of the members of the level-1 left and right
+	 * egonets around the given centers: the centers with their
+	 * in-neighbors, and the centers with their out-neighbors.
+	 */
+	public int[][] directedMembers(Collection<Long> centers) {
+		int[] left = null, right = null;
+		for(long id : centers) {
+			int c = denseId.get(id);
+			int[] in = list(c, true), both = list(c, false);
+			// the neighbors that are not in-neighbors are out-neighbors;
+			// the others are out-neighbors too if the link is mutual
+			int[] out = new int[both.length];
+			int n = 0;
+			for(int v : both)
+				if(Arrays.binarySearch(in, v) < 0 || hasInNeighbor(v, c))
+					out[n++] = v;
+			int[] self = {c};
+			int[] l = union(in, self), r = union(Arrays.copyOf(out, n), self);
+			left = left == null ? l : union(left, l);
+			right = right == null ? r : union(right, r);
+		}
+		return new int[][]{left, right};
+	}
+
+	/*
+	 * Copy of u's sorted unique in-neighbors, or of its neighbors in
+	 * either direction.
+	 */
+	private int[] list(int u, boolean in) {
+		int[] off = in ? inOff : nbrOff;
+		return Arrays.copyOfRange(in ? inNbr : nbr, off[u], off[u+1]);
+	}
+
+	private boolean hasInNeighbor(int u, int v) {
+		return Arrays.binarySearch(inNbr, inOff[u], inOff[u+1], v) >= 0;
+	}
+
+	private static int[] union(int[] x, int[] y) {
+		int[] ret = new int[x.length + y.length];
+		int i = 0, j = 0, n = 0;
+		while(i < x.length || j < y.length) {
+			if(j == y.length || (i < x.length && x[i] < y[j])) ret[n++] = x[i++];
+			else if(i == x.length || y[j] < x[i]) ret[n++] = y[j++];
+			else { ret[n++] = x[i++]; j++; }
+		}
+		return Arrays.copyOf(ret, n);
+	}
+
+	/**
+	 * Adds the contributions of members[from .. to) to the raw counts,
+	 * like Egonet.countMembers. members must be sorted.
+	 */
+	public void countMembers(int[] members, int from, int to, Counter<String> counts) {
+		countMembers(members, null, null, from, to, counts);
+	}
+
+	/**
+	 * As above, and when left and right are given (sorted subsets of
+	 * members, as from directedMembers) also the contributions of the
+	 * members of members[from .. to) that are in them to the counts of
+	 * the left and right egonets, under the same keys prefixed with "l"
+	 * and "r".
+	 */
+	public void countMembers(int[] members, int[] left, int[] right,
+			int from, int to, Counter<String> counts) {
+		int numAttrs = attrNames.length;
+		int numEgonets = left == null ? 1 : 3;
+		// [egonet], then [egonet][attr]; egonet 0 is the symmetric one and
+		// 1 and 2 (LEFT and RIGHT) the directed ones
+		long[] wn = new long[numEgonets], weu = new long[numEgonets], wet = new long[numEgonets];
+		long[] inU = new long[numEgonets], inT = new long[numEgonets];
+		long[] outU = new long[numEgonets], outT = new long[numEgonets];
+		double[][] wea = new double[numEgonets][numAttrs], weaOut = new double[numEgonets][numAttrs];
+		double[][] inV = new double[numEgonets][numAttrs], outV = new double[numEgonets][numAttrs];
+
+		long[] bitmap = null;
+		if(members.length >= BITMAP_SIZE) {
+			bitmap = bitmaps.get();
+			if(bitmap == null) {
+				bitmap = new long[(numNodes + 63) / 64];
+				bitmaps.set(bitmap);
+			}
+			for(int v : members) bitmap[v >>> 6] |= 1L << v;
+		}
+		long[] sides = null;
+		if(left != null) {
+			sides = sideBitmaps.get();
+			if(sides == null) {
+				sides = new long[(numNodes + 31) / 32];
+				sideBitmaps.set(sides);
+			}
+			for(int v : left) sides[v >>> 5] |= (long)LEFT << ((v & 31) << 1);
+			for(int v : right) sides[v >>> 5] |= (long)RIGHT << ((v & 31) << 1);
+		}
+
+		int[] hits = new int[16];
+		for(int k = from; k < to; k++) {
+			int m = members[k];
+			int side = sides == null ? 0 : side(sides, m);
+			int start = inOff[m], end = inOff[m+1];
+			int numHits;
+			if(hits.length < Math.min(end - start, members.length))
+				hits = new int[Math.min(end - start, members.length)];
+			if(bitmap != null && end - start <= members.length)
+				numHits = probe(bitmap, inNbr, start, end, hits);
+			else
+				numHits = intersect(members, inNbr, start, end, hits);
+
+			for(int h = 0; h < numHits; h++) {
+				int i = hits[h], v = inNbr[i];
+				// the link v -> m is internal to the directed egonets both
+				// ends are in
+				int internal = side == 0 ? 0 : side & side(sides, v);
+				long mult = inMult[i];
+				for(int e = 0; e < numEgonets; e++) {
+					if(e != 0 && (internal & e) == 0) continue;
+					weu[e]++;
+					wet[e] += mult;
+					for(int a = 0; a < numEdgeAttrs; a++)
+						wea[e][a] += inVal[a][i];
+					for(int a = numEdgeAttrs; a < numAttrs; a++) {
+						wea[e][a] += nodeVal[a][v];
+						weaOut[e][a] += nodeVal[a][m];
+					}
+				}
+			}
+
+			for(int e = 0; e < numEgonets; e++) {
+				if(e != 0 && (side & e) == 0) continue;
+				wn[e]++;
+				inU[e] += end - start;
+				inT[e] += inTotal[m];
+				outU[e] += outUnique[m];
+				outT[e] += outTotal[m];
+				for(int a = 0; a < numAttrs; a++) {
+					inV[e][a] += inValTotal[a][m];
+					outV[e][a] += outValTotal[a][m];
+				}
+			}
+		}
+
+		if(bitmap != null)
+			for(int v : members) bitmap[v >>> 6] = 0;
+		if(sides != null)
+			for(int v : members) sides[v >>> 5] = 0;
+
+		for(int e = 0; e < numEgonets; e++) {
+			String[] k = keys[e];
+			counts.increment(k[0], 1.0 * wn[e]);
+			counts.increment(k[1], 1.0 * weu[e]);
+			counts.increment(k[2], 1.0 * wet[e]);
+			counts.increment(k[5], 1.0 * (inU[e] - weu[e]));
+			counts.increment(k[6], 1.0 * (inT[e] - wet[e]));
+			counts.increment(k[3], 1.0 * (outU[e] - weu[e]));
+			counts.increment(k[4], 1.0 * (outT[e] - wet[e]));
+			for(int a = 0; a < numAttrs; a++) {
+				// an internal link's value is the same from either end for edge
+				// attributes; for vertex attributes it is the other end's value
+				double internalOut = a < numEdgeAttrs ? wea[e][a] : weaOut[e][a];
+				counts.increment(k[9 + 4*a], wea[e][a]);
+				counts.increment(k[11 + 4*a], inV[e][a] - wea[e][a]);
+				counts.increment(k[10 + 4*a], outV[e][a] - internalOut);
+			}
+		}
+	}
+
+	/*
+	 * LEFT and RIGHT bits of node v.
+	 */
+	private static int side(long[] sides, int v) {
+		return (int)(sides[v >>> 5] >>> ((v & 31) << 1)) & 3;
+	}
+
+	/*
+	 * Positions in list[start .. end) whose node is marked in the bitmap.
+	 */
+	private static int probe(long[] bitmap, int[] list, int start, int end, int[] hits) {
+		int n = 0;
+		for(int i = start; i < end; i++) {
+			int v = list[i];
+			if((bitmap[v >>> 6] & (1L << v)) != 0) hits[n++] = i;
+		}
+		return n;
+	}
+
+	/*
+	 * Positions in list[start .. end) whose node is in members.
+	 */
+	private static int intersect(int[] members, int[] list, int start, int end, int[] hits) {
+		int len = end - start, n = 0;
+		if(len == 0) return 0;
+		if(len <= members.length * MERGE_RATIO && members.length <= len * MERGE_RATIO) {
+			int i = start, j = 0;
+			while(i < end && j < members.length) {
+				if(list[i] < members[j]) i++;
+				else if(list[i] > members[j]) j++;
+				else { hits[n++] = i; i++; j++; }
+			}
+		}
+		else if(len < members.length) {
+			int j = 0;
+			for(int i = start; i < end && j < members.length; i++) {
+				j = gallop(members, j, members.length, list[i]);
+				if(j < members.length && members[j] == list[i]) hits[n++] = i;
+			}
+		}
+		else {
+			int i = start;
+			for(int j = 0; j < members.length && i < end; j++) {
+				i = gallop(list, i, end, members[j]);
+				if(i < end && list[i] == members[j]) hits[n++] = i;
+			}
+		}
+		return n;
+	}
+
+	/*
+	 * First position in a[from .. to) holding a value >= key: exponential
+	 * search from 'from', then binary search.
+	 */
+	private static int gallop(int[] a, int from, int to, int key) {
+		int step = 1, lo = from, hi = from;
+		while(hi < to && a[hi] < key) {
+			lo = hi + 1;
+			hi = from + step;
+			step <<= 1;
+		}
+		if(hi > to) hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(a[mid] < key) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.util.*;
+
+
+/**
+ * Groups nodes that are structurally equivalent: same in-neighbors and
+ * same out-neighbors, with the same number of links and the same total
+ * weight to each one. Such nodes (e.g. the leaves of a star with equal
+ * edge weights) have identical egonet counts at every level, and since
+ * their neighbors' feature values are then also shared, identical
+ * recursive features too. Features are computed for one representative
+ * per class and copied to the other members.
+ *
+ * Nodes with self-loops are left in classes of their own, since the
+ * loop makes a node its own neighbor. Nodes adjacent to each other are
+ * never grouped because each appears in the other's neighbor list.
+ *
+ * Given the graph's ConnectedComponents, nodes of small components are
+ * grouped by their canonical position instead, so the corresponding
+ * nodes of isomorphic components (all the equal-weight dyads, say)
+ * share a class as well.
+ *
+ * Set the refex.dedup system property to false to disable grouping.
+ */
+public class StructuralEquivalence {
+
+	static final boolean ENABLED = !"false".equals(System.getProperty("refex.dedup"));
+
+	private static final long NEIGHBORS = 0, COMPONENT = 1;
+
+	/** one node of each class, in the order first seen */
+	public final List<AttributedNode> representatives = new ArrayList<AttributedNode>();
+	/** classOf[i] indexes representatives for the i-th node given */
+	public final int[] classOf;
+
+	/*
+	 * Canonical description of a node's links, compared by value.
+	 */
+	private static class Signature {
+		final long[] key;
+		final int hash;
+		Signature(long[] key) {
+			this.key = key;
+			this.hash = Arrays.hashCode(key);
+		}
+		public int hashCode() { return hash; }
+		public boolean equals(Object o) {
+			return o instanceof Signature && Arrays.equals(key, ((Signature)o).key);
+		}
+	}
+
+	/**
+	 * @param nodes nodes to group
+	 * @param weightAttr edge attribute summed per neighbor, e.g. "wgt"
+	 */
+	public StructuralEquivalence(List<AttributedNode> nodes, String weightAttr) {
+		this(nodes, weightAttr, null);
+	}
+
+	/**
+	 * Also groups the matching nodes of isomorphic small components.
+	 *
+	 * @param nodes nodes to group
+	 * @param weightAttr edge attribute summed per neighbor, e.g. "wgt"
+	 * @param components components of the graph, or null
+	 */
+	public StructuralEquivalence(List<AttributedNode> nodes, String weightAttr,
+			ConnectedComponents components) {
+		classOf = new int[nodes.size()];
+		Map<AttributedNode, Signature> componentKeys = new HashMap<AttributedNode, Signature>();
+		if(ENABLED && components != null) {
+			for(List<AttributedNode> members : components.smallComponents(nodes,
+					ConnectedComponents.SMALL_SIZE)) {
+				// skip components that are only partly in nodes
+				if(members.size() != components.componentSize(members.get(0)))
+					continue;
+				long[][] keys = ConnectedComponents.canonicalKey(members, weightAttr);
+				for(int i = 0; i < keys.length; i++)
+					componentKeys.put(members.get(i), new Signature(tagged(COMPONENT, keys[i])));
+			}
+		}
+
+		Map<Signature, Integer> classes = new HashMap<Signature, Integer>();
+		for(int i = 0; i < classOf.length; i++) {
+			AttributedNode node = nodes.get(i);
+			Signature sig = componentKeys.get(node);
+			if(sig == null && ENABLED)
+				sig = signature(node, weightAttr);
+			Integer c = sig == null ? null : classes.get(sig);
+			if(c == null) {
+				c = representatives.size();
+				representatives.add(node);
+				if(sig != null) classes.put(sig, c);
+			}
+			classOf[i] = c;
+		}
+	}
+
+	/*
+	 * (neighbor, links, weight bits) triples for in-links, a separator,
+	 * then the same for out-links; null if the node has a self-loop.
+	 */
+	static Signature signature(AttributedNode node, String weightAttr) {
+		long[] in = triples(node, node.getInLinks(), true, weightAttr);
+		long[] out = triples(node, node.getOutLinks(), false, weightAttr);
+		if(in == null || out == null) return null;
+		long[] key = new long[in.length + out.length + 1];
+		System.arraycopy(in, 0, key, 0, in.length);
+		key[in.length] = -1;
+		System.arraycopy(out, 0, key, in.length + 1, out.length);
+		return new Signature(tagged(NEIGHBORS, key));
+	}
+
+	/*
+	 * key prefixed by the kind of signature, so the two kinds never
+	 * compare equal
+	 */
+	private static long[] tagged(long tag, long[] key) {
+		long[] ret = new long[key.length + 1];
+		ret[0] = tag;
+		System.arraycopy(key, 0, ret, 1, key.length);
+		return ret;
+	}
+
+	private static long[] triples(AttributedNode node, Set<AttributedLink> links,
+			boolean in, String weightAttr) {
+		Map<Long, double[]> byNeighbor = new TreeMap<Long, double[]>();
+		for(AttributedLink link : links) {
+			AttributedNode neighbor = in ? link.src : link.dst;
+			if(neighbor == node) return null;
+			double[] v = byNeighbor.get(neighbor.id);
+			if(v == null) {
+				v = new double[2];
+				byNeighbor.put(neighbor.id, v);
+			}
+			Object w = link.attrs.get(weightAttr);
+			v[0] += 1;
+			v[1] += w == null ? 0.0 : (Double)w;
+		}
+		long[] ret = new long[3 * byNeighbor.size()];
+		int k = 0;
+		for(Map.Entry<Long, double[]> e : byNeighbor.entrySet()) {
+			ret[k++] = e.getKey();
+			ret[k++] = (long)e.getValue()[0];
+			ret[k++] = Double.doubleToLongBits(e.getValue()[1]);
+		}
+		return ret;
+	}
+
+	public int numClasses() {
+		return representatives.size();
+	}
+}
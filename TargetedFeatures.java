@@ -0,0 +1,129 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Computes a fixed feature set for a list of target nodes only, by
+ * counting just the neighborhoods their recursive features depend on.
+ * The bins come from a plan saved by an earlier full run, so a target's
+ * features are the ones that run would have given it on the same graph
+ * (see IncrementalFeatures.computeFor).
+ *
+ * Commands:
+ *
+ * plan graphFile featureFile binSize planFile
+ *   runs the features of featureFile over the whole graph once and saves
+ *   the iterations and bins to planFile; with -Drefex.approxBins=true the
+ *   bins come from quantile sketches
+ *
+ * compute graphFile planFile targetFile outputFileBase [verify]
+ *   targetFile: one node ID per line
+ *   writes outputFileBase-featureValues.csv with one line per target;
+ *   verify also recounts the whole graph with the plan's bins and
+ *   reports the target values that differ
+ */
+public class TargetedFeatures {
+
+	private static void usage() {
+		System.err.println("Usage: java TargetedFeatures plan " +
+		"graphFile featureFile binSize planFile\n" +
+		"       java TargetedFeatures compute " +
+		"graphFile planFile targetFile outputFileBase [verify]");
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean plan = args.length == 5 && args[0].equals("plan");
+		boolean compute = args.length >= 5 && args.length <= 6 && args[0].equals("compute")
+				&& (args.length == 5 || args[5].equals("verify"));
+		if(!plan && !compute) {
+			usage();
+			return;
+		}
+
+		if(plan) {
+			double binSize;
+			try {
+				binSize = Double.parseDouble(args[3]);
+			}
+			catch(NumberFormatException e) {
+				usage();
+				return;
+			}
+			List<String> featureNames = new ArrayList<String>();
+			BufferedReader reader = new BufferedReader(new FileReader(args[2]));
+			for(String rep : reader.readLine().split(","))
+				featureNames.add(rep);
+			reader.close();
+
+			AttributedGraph graph = new GraphLoader().load(args[1]);
+			long start = System.currentTimeMillis();
+			IncrementalFeatures engine = new IncrementalFeatures(graph, featureNames, binSize);
+			engine.save(args[4]);
+			System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+					+ ": full run " + (System.currentTimeMillis() - start) + " ms, "
+					+ engine.iterations.size() + " iterations, "
+					+ engine.bins.size() + " binned attributes");
+			return;
+		}
+		String graphFile = args[1], planFile = args[2], targetFile = args[3];
+		String baseOut = args[4];
+		boolean verify = args.length == 6;
+
+		AttributedGraph graph = new GraphLoader().load(graphFile);
+		IncrementalFeatures engine = IncrementalFeatures.load(graph, planFile);
+
+		List<AttributedNode> targets = new ArrayList<AttributedNode>();
+		Set<AttributedNode> unique = new HashSet<AttributedNode>();
+		BufferedReader reader = new BufferedReader(new FileReader(targetFile));
+		String curLine;
+		while((curLine = reader.readLine()) != null) {
+			String id = curLine.trim();
+			if(id.length() == 0) continue;
+			AttributedNode node = graph.getNode("nodeID", id);
+			if(node == null)
+				System.err.println("not in the graph: " + id);
+			else if(unique.add(node))
+				targets.add(node);
+		}
+		reader.close();
+
+		long start = System.currentTimeMillis();
+		long counted = engine.computeFor(targets);
+		System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+				+ ": " + targets.size() + " targets, " + counted + " node counts over "
+				+ engine.iterations.size() + " iterations (graph has "
+				+ graph.getNumNodes() + " nodes), "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		List<String> featureNames = engine.featureNames;
+		String[] ids = new String[targets.size()];
+		double[] values = new double[targets.size() * featureNames.size()];
+		for(int i = 0; i < ids.length; i++) {
+			AttributedNode node = targets.get(i);
+			ids[i] = (String)node.getAttr("nodeID");
+			for(int f = 0; f < featureNames.size(); f++)
+				values[i + f*ids.length] = (Double)node.getAttr(featureNames.get(f));
+		}
+		FeatureMatrix features = new FeatureMatrix(ids,
+				featureNames.toArray(new String[featureNames.size()]), values);
+		String outFile = baseOut + "-featureValues.csv";
+		System.out.println("Feature Values: writing " + outFile);
+		features.write(outFile);
+
+		if(verify) {
+			engine.refresh(new HashSet<AttributedNode>(graph.getNodes()));
+			int mismatches = 0;
+			for(int i = 0; i < ids.length; i++)
+				for(int f = 0; f < featureNames.size(); f++)
+					if(features.get(i, f) != (Double)targets.get(i).getAttr(featureNames.get(f)))
+						mismatches++;
+			System.out.println("Verify: " + mismatches + " mismatched values");
+		}
+	}
+}
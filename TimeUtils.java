@@ -6,42 +6,253 @@
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.*;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class for converting times between long and String.
  * @author hendersk
  *
+ * All methods are safe to call from several threads at once. Patterns
+ * are SimpleDateFormat patterns, and each thread keeps one lenient
+ * SimpleDateFormat per pattern, so results are the same as a new
+ * SimpleDateFormat per call. Times are read and written in the default
+ * time zone unless the pattern parses a zone.
+ *
+ * The layouts yyyy-MM-dd, yyyy-MM-dd HH:mm:ss and yyyy-MM-dd HH:mm:ss.SSS
+ * (with ' ' or 'T' between date and time) are parsed by a fixed-position
+ * digit parser that allocates nothing, and can be applied directly to a
+ * range of a line or of a byte buffer with parseTimestamp. Text that it
+ * cannot read exactly as SimpleDateFormat would (short or long numeric
+ * fields, out-of-range values) goes to SimpleDateFormat.
  */
 public class TimeUtils {
 
+	private static final String DEFAULT_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+	private static final ThreadLocal<Map<String, SimpleDateFormat>> formats =
+		new ThreadLocal<Map<String, SimpleDateFormat>>() {
+			protected Map<String, SimpleDateFormat> initialValue() {
+				return new HashMap<String, SimpleDateFormat>();
+			}
+		};
+
+	// days from 0000-01-01 to 1970-01-01, as in LocalDate
+	private static final long DAYS_0000_TO_1970 = 719528L;
+	private static final long NOT_PARSED = Long.MIN_VALUE;
+
+	/*
+	 * A span of local times over which the default zone has one offset, so
+	 * that local seconds convert to epoch seconds by a subtraction. The
+	 * last span used is kept; it is immutable, so threads may share it.
+	 */
+	private static final class OffsetSpan {
+		final long fromLocal, toLocal;
+		final int offset;
+
+		OffsetSpan(long fromLocal, long toLocal, int offset) {
+			this.fromLocal = fromLocal;
+			this.toLocal = toLocal;
+			this.offset = offset;
+		}
+	}
+	private static volatile OffsetSpan lastSpan = new OffsetSpan(0, 0, 0);
+
 	/*
 	 * Conversion utilities for timestamps. There are 3 involved: string based
 	 * for humans, Java epoch style (milliseconds since 1/1/1970) and
 	 * java.sql.Timsestamp
 	 */
 	public static long dateAsMS(String rawDate, String format) {
-		SimpleDateFormat sdf = new SimpleDateFormat(format);
-		long startTime = 0;
+		// like SimpleDateFormat.parse, text after the pattern is ignored,
+		// but a digit there would have been read into the last field
+		int length = fixedLength(format);
+		if(length > 0 && rawDate.length() >= length
+				&& (rawDate.length() == length || !Character.isDigit(rawDate.charAt(length)))
+				&& (length == 10 || rawDate.charAt(10) == format.charAt(10)
+					|| (rawDate.charAt(10) == 'T' && format.charAt(10) == '\''))) {
+			long ms = fixed(rawDate, 0, length);
+			if(ms != NOT_PARSED) return ms;
+		}
 		try {
-			startTime = (sdf.parse(rawDate).getTime());
+			return format(format).parse(rawDate).getTime();
 		} catch (ParseException e1) {
 			return -1;
 		}
-		return startTime;
 	}
-	
+
+	/**
+	 * Parses chars [start, end) of text, laid out as yyyy-MM-dd,
+	 * yyyy-MM-dd HH:mm:ss or yyyy-MM-dd HH:mm:ss.SSS (either ' ' or 'T'
+	 * before the time), in the default time zone.
+	 * @return milliseconds since the epoch, or -1 if the range is not in
+	 * one of these layouts or a field is out of range (or the year is
+	 * before 1900); dateAsMS reads those leniently
+	 */
+	public static long parseTimestamp(CharSequence text, int start, int end) {
+		long ms = fixed(text, start, end - start);
+		return ms == NOT_PARSED ? -1 : ms;
+	}
+
+	/**
+	 * As parseTimestamp(CharSequence, int, int), for ASCII bytes
+	 * [start, end) of buf.
+	 */
+	public static long parseTimestamp(byte[] buf, int start, int end) {
+		long ms = fixed(buf, start, end - start);
+		return ms == NOT_PARSED ? -1 : ms;
+	}
+
 	public static String dateAsString(long msDate) {
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-		return sdf.format(new java.util.Date(msDate));
+		return dateAsString(msDate, DEFAULT_FORMAT);
 	}
 	
 	public static String dateAsString(long msDate, String format) {
-		SimpleDateFormat sdf = new SimpleDateFormat(format);
-		return sdf.format(new java.util.Date(msDate));
+		return format(format).format(new java.util.Date(msDate));
+	}
+
+	/*
+	 * This thread's SimpleDateFormat for pattern.
+	 */
+	private static SimpleDateFormat format(String pattern) {
+		Map<String, SimpleDateFormat> cache = formats.get();
+		SimpleDateFormat f = cache.get(pattern);
+		if(f == null) {
+			f = new SimpleDateFormat(pattern);
+			cache.put(pattern, f);
+		}
+		return f;
+	}
+
+	/*
+	 * Length of the text the fixed parser reads for format, or 0 if format
+	 * is not one of its layouts.
+	 */
+	private static int fixedLength(String format) {
+		if(format.equals("yyyy-MM-dd")) return 10;
+		if(format.equals("yyyy-MM-dd HH:mm:ss") || format.equals("yyyy-MM-dd'T'HH:mm:ss"))
+			return 19;
+		if(format.equals("yyyy-MM-dd HH:mm:ss.SSS") || format.equals("yyyy-MM-dd'T'HH:mm:ss.SSS"))
+			return 23;
+		return 0;
+	}
+
+	private static int digits(CharSequence s, int at, int n) {
+		int value = 0;
+		for(int i = at; i < at + n; i++) {
+			int d = s.charAt(i) - '0';
+			if(d < 0 || d > 9) return -1;
+			value = 10 * value + d;
+		}
+		return value;
+	}
+
+	private static int digits(byte[] b, int at, int n) {
+		int value = 0;
+		for(int i = at; i < at + n; i++) {
+			int d = b[i] - '0';
+			if(d < 0 || d > 9) return -1;
+			value = 10 * value + d;
+		}
+		return value;
+	}
+
+	private static long fixed(CharSequence s, int at, int length) {
+		if(length != 10 && length != 19 && length != 23) return NOT_PARSED;
+		if(s.charAt(at + 4) != '-' || s.charAt(at + 7) != '-') return NOT_PARSED;
+		int hour = 0, minute = 0, second = 0, milli = 0;
+		if(length > 10) {
+			char sep = s.charAt(at + 10);
+			if((sep != ' ' && sep != 'T') || s.charAt(at + 13) != ':' || s.charAt(at + 16) != ':')
+				return NOT_PARSED;
+			hour = digits(s, at + 11, 2);
+			minute = digits(s, at + 14, 2);
+			second = digits(s, at + 17, 2);
+			if(length > 19) {
+				if(s.charAt(at + 19) != '.') return NOT_PARSED;
+				milli = digits(s, at + 20, 3);
+			}
+		}
+		return toEpochMS(digits(s, at, 4), digits(s, at + 5, 2), digits(s, at + 8, 2),
+				hour, minute, second, milli);
+	}
+
+	private static long fixed(byte[] b, int at, int length) {
+		if(length != 10 && length != 19 && length != 23) return NOT_PARSED;
+		if(b[at + 4] != '-' || b[at + 7] != '-') return NOT_PARSED;
+		int hour = 0, minute = 0, second = 0, milli = 0;
+		if(length > 10) {
+			byte sep = b[at + 10];
+			if((sep != ' ' && sep != 'T') || b[at + 13] != ':' || b[at + 16] != ':')
+				return NOT_PARSED;
+			hour = digits(b, at + 11, 2);
+			minute = digits(b, at + 14, 2);
+			second = digits(b, at + 17, 2);
+			if(length > 19) {
+				if(b[at + 19] != '.') return NOT_PARSED;
+				milli = digits(b, at + 20, 3);
+			}
+		}
+		return toEpochMS(digits(b, at, 4), digits(b, at + 5, 2), digits(b, at + 8, 2),
+				hour, minute, second, milli);
+	}
+
+	/*
+	 * Epoch milliseconds of a local time in the default zone, or
+	 * NOT_PARSED if a field is missing (-1) or out of range.
+	 */
+	private static long toEpochMS(int year, int month, int day, int hour, int minute,
+			int second, int milli) {
+		// days past the end of the month roll over, as SimpleDateFormat's
+		// lenient calendar does; years before 1900 are left to it, since
+		// its zones have no local mean time and it is Julian before 1583
+		if(year < 1900 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+				|| minute < 0 || minute > 59 || second < 0 || second > 59 || milli < 0)
+			return NOT_PARSED;
+		boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+
+		// LocalDate.toEpochDay
+		long y = year;
+		long days = 365 * y + (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400
+			+ (367 * month - 362) / 12 + day - 1;
+		if(month > 2) days -= leap ? 1 : 2;
+		days -= DAYS_0000_TO_1970;
+
+		long local = days * 86400 + hour * 3600 + minute * 60 + second;
+		return 1000 * toEpochSecond(local) + milli;
+	}
+
+	private static long toEpochSecond(long local) {
+		OffsetSpan span = lastSpan;
+		if(local >= span.fromLocal && local < span.toLocal)
+			return local - span.offset;
+
+		// local times repeated by a fall-back transition are read as the
+		// later (standard) time, as SimpleDateFormat reads them
+		ZonedDateTime zoned = LocalDateTime.ofEpochSecond(local, 0, ZoneOffset.UTC)
+			.atZone(ZONE).withLaterOffsetAtOverlap();
+		Instant instant = zoned.toInstant();
+		// the span runs between the neighboring transitions, less the
+		// local times that fall in their gaps or overlaps
+		ZoneRules rules = ZONE.getRules();
+		ZoneOffsetTransition prev = rules.previousTransition(instant.plusSeconds(1));
+		ZoneOffsetTransition next = rules.nextTransition(instant);
+		long from = prev == null ? Long.MIN_VALUE : Math.max(
+				prev.getDateTimeBefore().toEpochSecond(ZoneOffset.UTC),
+				prev.getDateTimeAfter().toEpochSecond(ZoneOffset.UTC));
+		long to = next == null ? Long.MAX_VALUE : Math.min(
+				next.getDateTimeBefore().toEpochSecond(ZoneOffset.UTC),
+				next.getDateTimeAfter().toEpochSecond(ZoneOffset.UTC));
+		if(local >= from && local < to)
+			lastSpan = new OffsetSpan(from, to, zoned.getOffset().getTotalSeconds());
+		return zoned.toEpochSecond();
 	}
 	
 	public static void main(String[] args) {
 		System.out.println(dateAsMS("2007-11-1302:19:53.550", "yyyy-MM-ddHH:mm:ss.SSS"));
 		System.out.println(dateAsMS("2007-11-1302:19:53.717", "yyyy-MM-ddHH:mm:ss.SSS"));
 	}
-}
\ No newline at end of file
+}
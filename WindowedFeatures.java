@@ -0,0 +1,258 @@
+/**
+ * Version: 1.0
+ * Author: Keith Henderson
+ * Contact: keith@llnl.gov
+ */
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+
+/**
+ * Computes a fixed feature set over a sliding time window of a
+ * timestamped edge list, writing one feature matrix per window.
+ * Command line arguments:
+ *
+ * graphFile: csv format with source,destination,weight,time records;
+ *            time is milliseconds since the epoch unless dateFormat is
+ *            given
+ * featureFile: one line, comma-separated feature names
+ * binSize: same as GenerateFeatures.java
+ * width: window length in milliseconds
+ * step: milliseconds the window moves between matrices
+ * outputFileBase: base string for output files
+ * options: dateFormat=FORMAT (a date pattern, as in TimeUtils, for the time
+ *          column), rebuild=N (rerun from scratch and refreeze the bins
+ *          every N windows; default never), verify (recount each window
+ *          in full and report mismatches; a rebuilt window is compared
+ *          with a run on a graph loaded from its links alone)
+ *
+ * The first window is computed in full by IncrementalFeatures. Each
+ * later window removes the links that fell out of the front and adds the
+ * ones that came in at the back as one batch, so a step costs the
+ * change, not the window. Window k covers [start + k*step,
+ * start + k*step + width), where start is the earliest timestamp; the
+ * last window is the last one to start at or before the latest
+ * timestamp. The graph's interval start time is set to the window
+ * start. Features of window k are written to
+ * outputFileBase-window<k>-featureValues.csv and one summary line per
+ * window to outputFileBase-windows.csv.
+ */
+public class WindowedFeatures {
+
+	private String[] src, dst;
+	private double[] weight;
+	private long[] time;
+	private int numEdges = 0;
+
+	/*
+	 * Reads all records and sorts them by time.
+	 */
+	void load(String graphFile, String dateFormat) throws IOException {
+		List<String[]> records = new ArrayList<String[]>();
+		List<Long> times = new ArrayList<Long>();
+		BufferedReader reader = new BufferedReader(new FileReader(graphFile));
+		String curLine;
+		while((curLine = reader.readLine()) != null) {
+			String[] fields = curLine.split(",");
+			long t = dateFormat == null ? Long.parseLong(fields[3].trim())
+					: TimeUtils.dateAsMS(fields[3], dateFormat);
+			if(t < 0 && dateFormat != null) {
+				reader.close();
+				throw new IOException("bad time in " + graphFile + ": " + curLine);
+			}
+			records.add(fields);
+			times.add(t);
+		}
+		reader.close();
+
+		numEdges = records.size();
+		final long[] t = new long[numEdges];
+		Integer[] order = new Integer[numEdges];
+		for(int i = 0; i < numEdges; i++) {
+			t[i] = times.get(i);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(t[a], t[b]);
+			}
+		});
+		src = new String[numEdges];
+		dst = new String[numEdges];
+		weight = new double[numEdges];
+		time = new long[numEdges];
+		for(int i = 0; i < numEdges; i++) {
+			String[] fields = records.get(order[i]);
+			src[i] = fields[0];
+			dst[i] = fields[1];
+			weight[i] = Double.valueOf(fields[2]);
+			time[i] = t[order[i]];
+		}
+	}
+
+	private String[] change(String op, int i) {
+		return new String[]{op, src[i], dst[i], Double.toString(weight[i])};
+	}
+
+	void run(List<String> featureNames, double binSize, long width, long step,
+			String baseOut, int rebuild, boolean verify) throws IOException {
+		PrintStream summary = new PrintStream(baseOut + "-windows.csv");
+		summary.println("window,start,end,nodes,links,added,removed,recounted,ms");
+
+		AttributedGraph graph = new AttributedGraph();
+		graph.buildNodeIndex("nodeID");
+		IncrementalFeatures engine = null;
+		int head = 0, tail = 0;
+		long start = numEdges > 0 ? time[0] : 0;
+		for(int k = 0; numEdges > 0 && start <= time[numEdges-1]; k++, start += step) {
+			long clock = System.currentTimeMillis();
+			long end = start + width;
+			graph.setIntervalStartTime(start);
+
+			// links that were added and have now expired
+			List<String[]> changes = new ArrayList<String[]>();
+			int removed = 0, added = 0;
+			while(head < numEdges && time[head] < start) {
+				if(head < tail) {
+					changes.add(change("-", head));
+					removed++;
+				}
+				head++;
+			}
+			if(tail < head) tail = head;
+			while(tail < numEdges && time[tail] < end) {
+				changes.add(change("+", tail));
+				added++;
+				tail++;
+			}
+
+			long recounted = 0;
+			boolean full = engine == null || (rebuild > 0 && k % rebuild == 0);
+			if(full) {
+				for(String[] c : changes) {
+					if(c[0].equals("+"))
+						GraphLoader.addEdge(graph, c[1], c[2], Double.valueOf(c[3]));
+					else
+						IncrementalFeatures.unlink(graph, c[1], c[2], Double.valueOf(c[3]));
+				}
+				if(graph.getNumNodes() > 0) {
+					engine = new IncrementalFeatures(graph, featureNames, binSize);
+					recounted = graph.getNumNodes();
+				}
+			}
+			else {
+				int failed = engine.apply(changes);
+				if(failed > 0)
+					System.err.println("window " + k + ": " + failed + " changes not applied");
+				recounted = engine.lastRecounted;
+			}
+
+			String outFile = baseOut + "-window" + k + "-featureValues.csv";
+			if(engine != null && graph.getNumNodes() > 0) {
+				if(verify && !full)
+					System.out.println("window " + k + ": " + engine.verify()
+							+ " mismatched values");
+				else if(verify && k > 0)
+					System.out.println("window " + k + ": " 
+							+ verifyRebuild(graph, featureNames, binSize, head, tail)
+							+ " mismatched values after rebuild");
+				FeatureMatrix.fromGraph(graph, featureNames).write(outFile);
+			}
+			else {
+				new PrintStream(outFile).close();
+			}
+			clock = System.currentTimeMillis() - clock;
+			summary.println(k + "," + start + "," + end + "," + graph.getNumNodes() + ","
+					+ graph.getNumLinks() + "," + added + "," + removed + ","
+					+ recounted + "," + clock);
+			System.out.println(TimeUtils.dateAsString(System.currentTimeMillis())
+					+ ": window " + k + " [" + start + ", " + end + "): "
+					+ graph.getNumLinks() + " links, +" + added + " -" + removed
+					+ ", " + recounted + " node recounts");
+		}
+		summary.close();
+	}
+
+	/*
+	 * Runs featureNames on a new graph of links [head, tail) and returns
+	 * the number of values that differ from those of graph, which was
+	 * edited into the same window and rerun in place.
+	 */
+	private int verifyRebuild(AttributedGraph graph, List<String> featureNames,
+			double binSize, int head, int tail) {
+		AttributedGraph fresh = new AttributedGraph();
+		fresh.buildNodeIndex("nodeID");
+		for(int i = head; i < tail; i++)
+			GraphLoader.addEdge(fresh, src[i], dst[i], weight[i]);
+		new IncrementalFeatures(fresh, featureNames, binSize);
+		int mismatches = 0;
+		for(AttributedNode node : graph.getNodes()) {
+			AttributedNode other = fresh.getNode("nodeID", node.getAttr("nodeID"));
+			for(String feature : featureNames) {
+				if(other == null || 
+						!node.getAttr(feature).equals(other.getAttr(feature)))
+					mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @param args =
+	 * 	graphFileName : u,v,w,t .csv edge list
+	 *  featureFileName : name of .csv file with one line containing feature
+	 *  	names to keep
+	 *  binSize : size of vertical logarithmic bins (usually 0.5)
+	 *  width : window width in milliseconds
+	 *  step : window step in milliseconds
+	 *  baseOutputFileName : base filename for the per-window matrices
+	 *  options : dateFormat=FORMAT, rebuild=N, verify
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static void main(String[] args) throws IOException, ParseException {
+		String graphFile = null, featFile = null, baseOut = null, dateFormat = null;
+		double binSize = -1;
+		long width = 0, step = 0;
+		int rebuild = 0;
+		boolean verify = false;
+		try {
+			graphFile = args[0];
+			featFile = args[1];
+			binSize = Double.parseDouble(args[2]);
+			width = Long.parseLong(args[3]);
+			step = Long.parseLong(args[4]);
+			baseOut = args[5];
+			for(int i = 6; i < args.length; i++) {
+				if(args[i].startsWith("dateFormat="))
+					dateFormat = args[i].substring(11);
+				else if(args[i].startsWith("rebuild="))
+					rebuild = Integer.parseInt(args[i].substring(8));
+				else if(args[i].equals("verify"))
+					verify = true;
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+			if(width <= 0 || step <= 0) throw new IllegalArgumentException();
+		}
+		catch(Exception e) {
+			System.err.println("Usage: java WindowedFeatures " +
+			"graphFile featureFile binSize width step outputFileBase " +
+			"[dateFormat=FORMAT] [rebuild=N] [verify]");
+			return;
+		}
+
+		List<String> featureNames = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(featFile));
+		for(String rep : reader.readLine().split(","))
+			featureNames.add(rep);
+		reader.close();
+
+		WindowedFeatures windows = new WindowedFeatures();
+		windows.load(graphFile, dateFormat);
+		windows.run(featureNames, binSize, width, step, baseOut, rebuild, verify);
+	}
+}